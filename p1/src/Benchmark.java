@@ -0,0 +1,545 @@
+import java.awt.Color;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Timing runs for ColorTable and friends on the paintings in Constants.IMAGE_DIR.
+ * Run from the project directory so that the image directory can be found.
+ */
+
+public class Benchmark {
+
+  /**
+   * Number of times each measurement is repeated; the fastest run is reported.
+   */
+  private static final int TRIALS = 3;
+
+  /**
+   * Loads every painting in the image directory.
+   */
+  private static Image[] loadImages() {
+    File[] files = new File(Constants.IMAGE_DIR).listFiles();
+    Image[] images = new Image[files.length];
+    for (int i = 0; i < files.length; i++)
+      images[i] = new Image(files[i].getPath());
+    return images;
+  }
+
+  /**
+   * For each painting and each number of bits per channel, prints the number of
+   * distinct colors, the final capacity of the table, and the time taken to
+   * histogram the painting. Since every increment probes only a few slots, the
+   * time should track the number of pixels rather than the capacity of the table.
+   */
+  public static void sizeTest(Image[] images) {
+    System.out.println("size vs. time (image, bpc, pixels, size, capacity, ms)");
+    for (Image image : images) {
+      for (int bitsPerChannel = 1; bitsPerChannel <= 8; bitsPerChannel++) {
+        ColorTable table = null;
+        long best = Long.MAX_VALUE;
+        for (int trial = 0; trial < TRIALS; trial++) {
+          long start = System.nanoTime();
+          table = Driver.vectorize(image, bitsPerChannel);
+          best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.println(String.format("   %-10s %d %9d %8d %9d %8.1f",
+            image.getName(),
+            bitsPerChannel,
+            image.getWidth() * image.getHeight(),
+            table.getSize(),
+            table.getCapacity(),
+            best / 1e6));
+      }
+    }
+  }
+
+  /**
+   * Returns the number of bytes allocated so far by the current thread.
+   */
+  private static long allocatedBytes() {
+    return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+        .getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  /**
+   * Returns the number of bytes currently in use on the heap, after asking for a
+   * collection so that garbage is not counted.
+   */
+  private static long usedHeap() {
+    Runtime rt = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++)
+      System.gc();
+    return rt.totalMemory() - rt.freeMemory();
+  }
+
+  /**
+   * For each painting, prints the number of bytes allocated (and the allocation rate)
+   * while building its histogram, followed by the heap retained per entry by all of
+   * the histograms together.
+   */
+  public static void memoryTest(Image[] images, int bitsPerChannel) {
+    System.out.println("memory at " + bitsPerChannel + 
+        " bpc (image, size, capacity, allocated bytes/pixel, MB/s)");
+    ColorTable[] tables = new ColorTable[images.length];
+    long entries = 0;
+    long before = usedHeap();
+    for (int i = 0; i < images.length; i++) {
+      Image image = images[i];
+      long allocated = allocatedBytes();
+      long start = System.nanoTime();
+      tables[i] = Driver.vectorize(image, bitsPerChannel);
+      long elapsed = System.nanoTime() - start;
+      allocated = allocatedBytes() - allocated;
+      entries += tables[i].getSize();
+      System.out.println(String.format("   %-10s %8d %9d %8.1f %8.1f",
+          image.getName(),
+          tables[i].getSize(),
+          tables[i].getCapacity(),
+          (double) allocated / (image.getWidth() * image.getHeight()),
+          allocated / 1e6 / (elapsed / 1e9)));
+    }
+    long retained = usedHeap() - before;
+    System.out.println(String.format("   retained bytes/entry over %d tables: %.1f",
+        tables.length, (double) retained / entries));
+  }
+
+  /**
+   * Inserts n distinct colors into a table at 8 bits per channel, starting from the
+   * smallest capacity, and prints the time taken. With the size of the table kept
+   * up to date by put(), a million colors should take no more than a few seconds.
+   */
+  public static void insertTest(int n) {
+    long start = System.nanoTime();
+    ColorTable table = new ColorTable(1, 8, Constants.QUADRATIC, 0.49);
+    for (int rgb = 0; rgb < n; rgb++)
+      table.put(new Color(rgb), 1);
+    long elapsed = System.nanoTime() - start;
+    System.out.println(String.format("inserted %d distinct colors (capacity %d) in %.2f s", 
+        table.getSize(), table.getCapacity(), elapsed / 1e9));
+  }
+
+  /**
+   * For each painting in the image directory, prints the time taken and the bytes
+   * allocated to histogram it at 8 bits per channel by decoding the whole image, and
+   * then by decoding it a tile at a time with tiles of a few sizes. The paintings are 
+   * small enough that the table dominates the bytes allocated either way; what this
+   * shows is the cost of decoding JPEG rows again for every tile in a row of tiles.
+   */
+  public static void tileTest() throws IOException {
+    int[][] tiles = { { 128, 128 }, { 512, 512 }, { 4096, 64 } };
+    System.out.println("tiles at 8 bpc (image, pixels, whole ms, whole MB, then ms and MB for 128x128, 512x512, 4096x64)");
+    for (File file : new File(Constants.IMAGE_DIR).listFiles()) {
+      long allocated = allocatedBytes();
+      long start = System.nanoTime();
+      Image image = new Image(file.getPath());
+      Driver.vectorize(image, 8);
+      StringBuilder line = new StringBuilder(String.format("   %-10s %9d %8.1f %6.1f", image.getName(),
+          image.getWidth() * image.getHeight(), (System.nanoTime() - start) / 1e6, 
+          (allocatedBytes() - allocated) / 1e6));
+      for (int[] tile : tiles) {
+        allocated = allocatedBytes();
+        start = System.nanoTime();
+        Driver.vectorizeTiled(file, Driver.newTable(8), tile[0], tile[1]);
+        line.append(String.format(" %8.1f %6.1f", (System.nanoTime() - start) / 1e6,
+            (allocatedBytes() - allocated) / 1e6));
+      }
+      System.out.println(line);
+    }
+  }
+
+  /**
+   * Histograms 1%, 5% and 25% of the pixels of every painting at the given bits per
+   * channel with each sampling mode, and prints the time taken over all the paintings
+   * along with how well the sampled similarities of every pair of paintings match the
+   * exact ones: the mean absolute error, the mean width of the 95% intervals, and the
+   * share of the intervals that cover the exact similarity.
+   */
+  public static void samplingTest(Image[] images, int bitsPerChannel) {
+    String[] modes = { "stride", "random", "stratified" };
+    ColorTable[] exact = new ColorTable[images.length];
+    long full = Long.MAX_VALUE;
+    for (int trial = 0; trial < TRIALS; trial++) {
+      long start = System.nanoTime();
+      for (int i = 0; i < images.length; i++)
+        exact[i] = Driver.vectorize(images[i], bitsPerChannel);
+      full = Math.min(full, System.nanoTime() - start);
+    }
+    System.out.println(String.format("sampling at %d bpc, all pixels in %.1f ms (mode, fraction, ms, "
+        + "mean error, mean width, coverage)", bitsPerChannel, full / 1e6));
+    Random rand = new Random(343);
+    for (int mode = 0; mode < modes.length; mode++) {
+      for (double fraction : new double[] { 0.01, 0.05, 0.25 }) {
+        ColorTable[] sampled = new ColorTable[images.length];
+        long best = Long.MAX_VALUE;
+        for (int trial = 0; trial < TRIALS; trial++) {
+          long start = System.nanoTime();
+          for (int i = 0; i < images.length; i++)
+            sampled[i] = Driver.vectorizeSampled(images[i], Driver.newTable(bitsPerChannel), fraction, mode, rand);
+          best = Math.min(best, System.nanoTime() - start);
+        }
+        double error = 0, width = 0;
+        int pairs = 0, covered = 0;
+        for (int i = 0; i < images.length; i++) {
+          for (int j = i + 1; j < images.length; j++, pairs++) {
+            double cos = Util.cosineSimilarity(exact[i], exact[j]);
+            Util.Interval interval = Util.cosineSimilarity(sampled[i], fraction, sampled[j], fraction, 0.95);
+            error += Math.abs(interval.getEstimate() - cos);
+            width += interval.getHigh() - interval.getLow();
+            covered += interval.contains(cos) ? 1 : 0;
+          }
+        }
+        System.out.println(String.format("   %-10s %.2f %8.1f %8.4f %8.4f %5.1f%%", modes[mode], fraction,
+            best / 1e6, error / pairs, width / pairs, 100.0 * covered / pairs));
+      }
+    }
+  }
+
+  /**
+   * Times Util.cosineSimilarity() on every pair of paintings at the given number of 
+   * bits per channel, and prints the average time per pair along with the average
+   * size and capacity of the tables being compared.
+   */
+  public static void similarityTest(Image[] images, int bitsPerChannel) {
+    ColorTable[] tables = new ColorTable[images.length];
+    long size = 0, capacity = 0;
+    for (int i = 0; i < images.length; i++) {
+      tables[i] = Driver.vectorize(images[i], bitsPerChannel);
+      size += tables[i].getSize();
+      capacity += tables[i].getCapacity();
+    }
+    long best = Long.MAX_VALUE;
+    int pairs = 0;
+    for (int trial = 0; trial < TRIALS; trial++) {
+      pairs = 0;
+      long start = System.nanoTime();
+      for (int i = 0; i < tables.length; i++)
+        for (int j = i + 1; j < tables.length; j++, pairs++)
+          Util.cosineSimilarity(tables[i], tables[j]);
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    System.out.println(String.format(
+        "similarity at %d bpc: %.3f ms/pair (average size %d, average capacity %d)",
+        bitsPerChannel, best / 1e6 / pairs, size / tables.length, capacity / tables.length));
+  }
+
+  /**
+   * For each number of bits per channel, prints the total time taken to histogram all
+   * of the paintings into dense, linear and quadratic tables.
+   */
+  public static void strategyTest(Image[] images) {
+    int[] strategies = { Constants.DENSE, Constants.LINEAR, Constants.QUADRATIC };
+    double[] thresholds = { 1.0, 0.75, 0.49 };
+    System.out.println("strategies (bpc, dense ms, linear ms, quadratic ms)");
+    for (int bitsPerChannel = 1; bitsPerChannel <= 8; bitsPerChannel++) {
+      StringBuilder line = new StringBuilder("   " + bitsPerChannel);
+      for (int s = 0; s < strategies.length; s++) {
+        long best = Long.MAX_VALUE;
+        for (int trial = 0; trial < TRIALS; trial++) {
+          long start = System.nanoTime();
+          for (Image image : images)
+            Driver.vectorize(image, new ColorTable(1, bitsPerChannel, strategies[s], thresholds[s]));
+          best = Math.min(best, System.nanoTime() - start);
+        }
+        line.append(String.format(" %9.1f", best / 1e6));
+      }
+      System.out.println(line);
+    }
+  }
+
+  /**
+   * Times Driver.vectorizeParallel() over the paintings, each scaled up by the given
+   * factor, on pools of 1, 2, 4, ... workers up to the number of available processors,
+   * and prints the speedup over Driver.vectorize().
+   */
+  public static void parallelTest(Image[] images, int scale, int bitsPerChannel) {
+    Image[] scaled = new Image[images.length];
+    for (int i = 0; i < images.length; i++)
+      scaled[i] = new Image(images[i], scale);
+    long sequential = Long.MAX_VALUE;
+    for (int trial = 0; trial < TRIALS; trial++) {
+      long start = System.nanoTime();
+      for (Image image : scaled)
+        Driver.vectorize(image, bitsPerChannel);
+      sequential = Math.min(sequential, System.nanoTime() - start);
+    }
+    System.out.println(String.format("parallel at %d bpc, images scaled %dx (workers, ms, speedup)",
+        bitsPerChannel, scale));
+    System.out.println(String.format("   seq %9.1f", sequential / 1e6));
+    int cores = Runtime.getRuntime().availableProcessors();
+    for (int workers = 1; ; workers = Math.min(2 * workers, cores)) {
+      ForkJoinPool pool = new ForkJoinPool(workers);
+      long best = Long.MAX_VALUE;
+      for (int trial = 0; trial < TRIALS; trial++) {
+        long start = System.nanoTime();
+        for (Image image : scaled)
+          Driver.vectorizeParallel(image, bitsPerChannel, pool);
+        best = Math.min(best, System.nanoTime() - start);
+      }
+      pool.shutdown();
+      System.out.println(String.format("   %3d %9.1f %6.2f", workers, best / 1e6, (double) sequential / best));
+      if (workers == cores)
+        break;
+    }
+  }
+
+  /**
+   * Counts the pixels of all the paintings, each scaled up by the given factor, into one
+   * shared ConcurrentColorTable with Driver.vectorizeConcurrent() on pools of 1, 2, 4, ...
+   * workers up to the number of available processors, and prints the speedup over 
+   * counting them into one ColorTable on a single thread.
+   */
+  public static void concurrentTest(Image[] images, int scale, int bitsPerChannel) {
+    Image[] scaled = new Image[images.length];
+    for (int i = 0; i < images.length; i++)
+      scaled[i] = new Image(images[i], scale);
+    long sequential = Long.MAX_VALUE;
+    for (int trial = 0; trial < TRIALS; trial++) {
+      long start = System.nanoTime();
+      ColorTable table = new ColorTable(1, bitsPerChannel, Constants.QUADRATIC, 0.49);
+      for (Image image : scaled)
+        Driver.vectorize(image, table);
+      sequential = Math.min(sequential, System.nanoTime() - start);
+    }
+    System.out.println(String.format("shared table at %d bpc, images scaled %dx (workers, ms, speedup)",
+        bitsPerChannel, scale));
+    System.out.println(String.format("   seq %9.1f", sequential / 1e6));
+    int cores = Runtime.getRuntime().availableProcessors();
+    for (int workers = 1; ; workers = Math.min(2 * workers, cores)) {
+      ForkJoinPool pool = new ForkJoinPool(workers);
+      long best = Long.MAX_VALUE;
+      for (int trial = 0; trial < TRIALS; trial++) {
+        long start = System.nanoTime();
+        ConcurrentColorTable table = new ConcurrentColorTable(1, bitsPerChannel, 0.5);
+        for (Image image : scaled)
+          Driver.vectorizeConcurrent(image, table, pool);
+        best = Math.min(best, System.nanoTime() - start);
+      }
+      pool.shutdown();
+      System.out.println(String.format("   %3d %9.1f %6.2f", workers, best / 1e6, (double) sequential / best));
+      if (workers == cores)
+        break;
+    }
+  }
+
+  /**
+   * Prints the time taken by Image.quantize() and Image.xray() on each painting at its
+   * full resolution, as the GUI does on every repaint.
+   */
+  public static void quantizeTest(Image[] images) {
+    System.out.println("quantize (image, pixels, quantize ms, xray ms)");
+    for (Image image : images) {
+      long quantize = Long.MAX_VALUE, xray = Long.MAX_VALUE;
+      for (int trial = 0; trial < TRIALS; trial++) {
+        long start = System.nanoTime();
+        Image quantized = image.quantize(3);
+        long middle = System.nanoTime();
+        quantized.xray(Color.BLACK);
+        long end = System.nanoTime();
+        quantize = Math.min(quantize, middle - start);
+        xray = Math.min(xray, end - middle);
+      }
+      System.out.println(String.format("   %-10s %9d %8.2f %8.2f", image.getName(),
+          image.getWidth() * image.getHeight(), quantize / 1e6, xray / 1e6));
+    }
+  }
+
+  /**
+   * Builds corpora of noisy copies of the paintings, histogrammed at the given bits per 
+   * channel, with sizes 1000, 10000, ... up to maxSize. For each, prints the average time
+   * of a top-k CorpusIndex query, the average number of paintings it compared exactly,
+   * and the time of a brute-force scan with Util.cosineSimilarity().
+   */
+  public static void corpusTest(Image[] images, int bitsPerChannel, int maxSize, int k) {
+    Random rand = new Random(343);
+    ColorTable[] base = new ColorTable[images.length];
+    for (int i = 0; i < base.length; i++)
+      base[i] = Driver.vectorize(images[i], bitsPerChannel);
+    System.out.println(String.format("corpus at %d bpc, top %d (size, query ms, scored, brute-force ms)",
+        bitsPerChannel, k));
+    for (int n = 1000; n <= maxSize; n *= 10) {
+      CorpusIndex index = new CorpusIndex(bitsPerChannel);
+      ColorTable[] corpus = new ColorTable[n];
+      for (int doc = 0; doc < n; doc++) {
+        // Drop about a tenth of the colors and scale the rest by random amounts.
+        corpus[doc] = Driver.newTable(bitsPerChannel);
+        EntryIterator it = base[rand.nextInt(base.length)].entries();
+        while (it.hasNext()) {
+          long count = it.next();
+          if (rand.nextInt(10) > 0)
+            corpus[doc].put(Util.unpack(it.key(), bitsPerChannel), 1 + (long) (count * rand.nextDouble()));
+        }
+        index.add("doc" + doc, corpus[doc]);
+      }
+      index.query(base[0], k); // chooses the pivots
+      long query = 0, scored = 0;
+      for (ColorTable q : base) {
+        long start = System.nanoTime();
+        index.query(q, k);
+        query += System.nanoTime() - start;
+        scored += index.getNumScored();
+      }
+      long start = System.nanoTime();
+      for (ColorTable q : base)
+        for (ColorTable doc : corpus)
+          Util.cosineSimilarity(q, doc);
+      long brute = System.nanoTime() - start;
+      System.out.println(String.format("   %7d %9.2f %8d %9.2f", n, query / 1e6 / base.length,
+          scored / base.length, brute / 1e6 / base.length));
+    }
+  }
+
+  /**
+   * Histograms every painting at the given bits per channel with each collision policy
+   * and a range of rehash thresholds, and prints the probe and rehash statistics of all
+   * the tables of each kind put together, along with the best time taken over all the
+   * paintings and the bytes of table per color.
+   */
+  public static void probeTest(Image[] images, int bitsPerChannel) {
+    int[] strategies = { Constants.LINEAR, Constants.QUADRATIC, Constants.ROBIN_HOOD, Constants.DOUBLE_HASHING };
+    double[][] thresholds = { { 0.25, 0.5, 0.75, 0.9 }, { 0.25, 0.4, 0.49 },
+        { 0.5, 0.75, 0.9, 0.95 }, { 0.5, 0.75, 0.9, 0.95 } };
+    System.out.println("probes at " + bitsPerChannel + " bpc (strategy, threshold, avg probe, max probe, " 
+        + "rehashes, rehash ms, ms, bytes/color)");
+    for (int s = 0; s < strategies.length; s++) {
+      for (double threshold : thresholds[s]) {
+        long lookups = 0, collisions = 0, rehashes = 0, capacity = 0, size = 0;
+        int maxProbe = 0;
+        double rehashMillis = 0;
+        long best = Long.MAX_VALUE;
+        for (int trial = 0; trial < TRIALS; trial++) {
+          long elapsed = 0;
+          for (Image image : images) {
+            ColorTable table = new ColorTable(1, bitsPerChannel, strategies[s], threshold);
+            long start = System.nanoTime();
+            Driver.vectorize(image, table);
+            elapsed += System.nanoTime() - start;
+            if (trial == 0) {
+              ColorTableStats stats = table.getStats();
+              lookups += stats.getLookups();
+              collisions += stats.getCollisions();
+              maxProbe = Math.max(maxProbe, stats.getMaxProbe());
+              rehashes += stats.getRehashCount();
+              rehashMillis += stats.getRehashMillis();
+              capacity += stats.getCapacity();
+              size += stats.getSize();
+            }
+          }
+          best = Math.min(best, elapsed);
+        }
+        System.out.println(String.format("   %-14s %.2f %8.3f %6d %5d %8.1f %8.1f %6.1f",
+            CollisionPolicy.forStrategy(strategies[s]), threshold, (double) collisions / lookups,
+            maxProbe, rehashes, rehashMillis, best / 1e6, 12.0 * capacity / size));
+      }
+    }
+  }
+
+  /**
+   * Histograms every painting at the given bits per channel with each collision policy
+   * and each way of mixing the keys, at the given rehash threshold (capped for quadratic
+   * probing), and prints the average and longest probes of all the tables of each kind
+   * put together, along with the best time taken over all the paintings.
+   */
+  public static void mixTest(Image[] images, int bitsPerChannel, double threshold) {
+    int[] strategies = { Constants.LINEAR, Constants.QUADRATIC, Constants.ROBIN_HOOD, Constants.DOUBLE_HASHING };
+    String[] mixes = { "none", "fmix32", "fibonacci" };
+    System.out.println(String.format("mixing at %d bpc, threshold %.2f (strategy, mix, avg probe, max probe, ms)",
+        bitsPerChannel, threshold));
+    for (int strategy : strategies) {
+      for (int mix = 0; mix < mixes.length; mix++) {
+        double t = (strategy == Constants.QUADRATIC) ? Math.min(threshold, 0.49) : threshold;
+        long lookups = 0, collisions = 0;
+        int maxProbe = 0;
+        long best = Long.MAX_VALUE;
+        for (int trial = 0; trial < TRIALS; trial++) {
+          long elapsed = 0;
+          for (Image image : images) {
+            ColorTable table = new ColorTable(1, bitsPerChannel, strategy, t, mix);
+            long start = System.nanoTime();
+            Driver.vectorize(image, table);
+            elapsed += System.nanoTime() - start;
+            if (trial == 0) {
+              ColorTableStats stats = table.getStats();
+              lookups += stats.getLookups();
+              collisions += stats.getCollisions();
+              maxProbe = Math.max(maxProbe, stats.getMaxProbe());
+            }
+          }
+          best = Math.min(best, elapsed);
+        }
+        System.out.println(String.format("   %-14s %-9s %8.3f %6d %8.1f", CollisionPolicy.forStrategy(strategy),
+            mixes[mix], (double) collisions / lookups, maxProbe, best / 1e6));
+      }
+    }
+  }
+
+  /**
+   * For each painting, prints the time taken to histogram it separately at each of the 8
+   * bits per channel, and the time taken to build its PalettePyramid, which reads the
+   * pixels once and folds the coarser levels. Then finds the 3 paintings nearest each
+   * one, comparing every pair at 8 bpc and again screening with PalettePyramid.nearest(),
+   * and prints both times along with how many answers differ.
+   */
+  public static void pyramidTest(Image[] images) {
+    System.out.println("pyramid (image, pixels, separate ms, pyramid ms)");
+    List<PalettePyramid> corpus = new ArrayList<>();
+    for (Image image : images) {
+      long separate = Long.MAX_VALUE, pyramid = Long.MAX_VALUE;
+      PalettePyramid built = null;
+      for (int trial = 0; trial < TRIALS; trial++) {
+        long start = System.nanoTime();
+        for (int bitsPerChannel = 1; bitsPerChannel <= 8; bitsPerChannel++)
+          Driver.vectorize(image, bitsPerChannel);
+        separate = Math.min(separate, System.nanoTime() - start);
+        start = System.nanoTime();
+        built = new PalettePyramid(image);
+        pyramid = Math.min(pyramid, System.nanoTime() - start);
+      }
+      corpus.add(built);
+      System.out.println(String.format("   %-10s %10d %8.1f %8.1f", image.getName(),
+          image.getWidth() * image.getHeight(), separate / 1e6, pyramid / 1e6));
+    }
+    int k = 3, candidates = 5, differ = 0;
+    long exact = 0, screened = 0;
+    for (PalettePyramid query : corpus) {
+      long start = System.nanoTime();
+      List<Integer> all = PalettePyramid.nearest(query, corpus, k, corpus.size());
+      exact += System.nanoTime() - start;
+      start = System.nanoTime();
+      List<Integer> some = PalettePyramid.nearest(query, corpus, k, candidates);
+      screened += System.nanoTime() - start;
+      if (!all.equals(some))
+        differ++;
+    }
+    System.out.println(String.format("   nearest %d of %d: exact %.1f ms, %d candidates %.1f ms, %d answers differ",
+        k, corpus.size(), exact / 1e6, candidates, screened / 1e6, differ));
+  }
+
+  /**
+   * Runs all of the timing tests.
+   */
+  public static void main(String[] args) throws IOException {
+    insertTest(1000000);
+    Image[] images = loadImages();
+    sizeTest(images);
+    memoryTest(images, 6);
+    strategyTest(images);
+    quantizeTest(images);
+    tileTest();
+    parallelTest(images, 4, 6);
+    parallelTest(images, 4, 8);
+    concurrentTest(images, 4, 8);
+    corpusTest(images, 3, 100000, 10);
+    pyramidTest(images);
+    samplingTest(images, 4);
+    samplingTest(images, 8);
+    probeTest(images, 8);
+    mixTest(images, 8, 0.75);
+    for (int bitsPerChannel = 6; bitsPerChannel <= 8; bitsPerChannel++)
+      similarityTest(images, bitsPerChannel);
+  }
+}
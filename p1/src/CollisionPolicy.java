@@ -0,0 +1,139 @@
+/**
+ * A CollisionPolicy decides where a ColorTable looks for a key: the sequence of slots
+ * visited on steps 0, 1, 2, ... when the key's earlier slots are taken by other keys.
+ * The built-in policies are listed in Constants and found with forStrategy(); a new
+ * policy only has to supply probe(), which should eventually visit every slot of a
+ * table whose capacity is either a prime of the form 4j + 3 or, for a table that mixes
+ * its keys (see Constants.FMIX32), a power of two.
+ *
+ * A policy that displaces (Robin Hood hashing) keeps every run of keys ordered by how
+ * far each key sits from its home slot. An insertion takes the slot of the first key
+ * that is closer to home than the new one and shifts the rest of the run along, a
+ * lookup gives up as soon as it meets such a key, and a removal shifts the run back.
+ * This keeps probe lengths short and even at high load factors. Displacing policies
+ * must probe linearly.
+ */
+
+public abstract class CollisionPolicy {
+  private int strategy;
+  private String name;
+  private double maxThreshold;
+
+  /**
+   * Linear probing: home, home + 1, home + 2, ...
+   */
+  public static final CollisionPolicy LINEAR = new CollisionPolicy(Constants.LINEAR, "linear", 1.0) {
+    public int probe(int home, int hash, int step, int capacity) {
+      return (int) ((home + (long) step) % capacity);
+    }
+  };
+
+  /**
+   * Quadratic probing: home, home + 1, home + 4, home + 9, ... Only half of the slots
+   * are sure to be visited, so the table must stay under half full. Squares miss most
+   * of the slots of a power of two, so there it steps by triangular numbers instead:
+   * home, home + 1, home + 3, home + 6, ..., which visit every slot.
+   */
+  public static final CollisionPolicy QUADRATIC = new CollisionPolicy(Constants.QUADRATIC, "quadratic", 0.5) {
+    public int probe(int home, int hash, int step, int capacity) {
+      if ((capacity & (capacity - 1)) == 0)
+        return (int) ((home + (long) step * (step + 1) / 2) & (capacity - 1));
+      return (int) ((home + (long) step * step) % capacity);
+    }
+  };
+
+  /**
+   * One slot per key, indexed directly by the packed color; see Constants.DENSE.
+   */
+  public static final CollisionPolicy DENSE = new CollisionPolicy(Constants.DENSE, "dense", Double.MAX_VALUE) {
+    public int probe(int home, int hash, int step, int capacity) {
+      return LINEAR.probe(home, hash, step, capacity);
+    }
+  };
+
+  /**
+   * Robin Hood hashing over linear probing.
+   */
+  public static final CollisionPolicy ROBIN_HOOD = new CollisionPolicy(Constants.ROBIN_HOOD, "robin hood", 1.0) {
+    public int probe(int home, int hash, int step, int capacity) {
+      return LINEAR.probe(home, hash, step, capacity);
+    }
+
+    public boolean displaces() {
+      return true;
+    }
+  };
+
+  /**
+   * Double hashing: home, home + s, home + 2s, ... where the stride s is taken from the
+   * higher digits of the hash, so keys that share a home slot part ways at once. Any
+   * stride visits every slot of a prime capacity, and any odd one every slot of a power
+   * of two.
+   */
+  public static final CollisionPolicy DOUBLE_HASHING = new CollisionPolicy(Constants.DOUBLE_HASHING, "double hashing", 1.0) {
+    public int probe(int home, int hash, int step, int capacity) {
+      if (step == 0)
+        return home;
+      long stride = 1 + (hash / capacity) % (capacity - 1);
+      if ((capacity & (capacity - 1)) == 0)
+        stride |= 1;
+      return (int) ((home + step * stride) % capacity);
+    }
+  };
+
+  /**
+   * Constructs a policy known to ColorTable.save() by the given strategy number, and
+   * allowing rehash thresholds up to maxThreshold.
+   */
+  protected CollisionPolicy(int strategy, String name, double maxThreshold) {
+    this.strategy = strategy;
+    this.name = name;
+    this.maxThreshold = maxThreshold;
+  }
+
+  /**
+   * Returns the slot visited on the given step of the probe sequence of a key in a table
+   * of the given capacity. The table works out the key's home slot, which is visited on
+   * step 0, and its hash, which is never negative and may be used to vary the sequence.
+   */
+  public abstract int probe(int home, int hash, int step, int capacity);
+
+  /**
+   * Returns true iff this policy keeps runs ordered by distance from home, as described
+   * above.
+   */
+  public boolean displaces() {
+    return false;
+  }
+
+  public int getStrategy() {
+    return strategy;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Returns the largest rehash threshold this policy can work with.
+   */
+  public double getMaxThreshold() {
+    return maxThreshold;
+  }
+
+  public String toString() {
+    return name;
+  }
+
+  /**
+   * Returns the built-in policy for one of the strategies in Constants.
+   *
+   * @throws RuntimeException if there is no such strategy
+   */
+  public static CollisionPolicy forStrategy(int strategy) {
+    for (CollisionPolicy policy : new CollisionPolicy[] { LINEAR, QUADRATIC, DENSE, ROBIN_HOOD, DOUBLE_HASHING })
+      if (policy.strategy == strategy)
+        return policy;
+    throw new RuntimeException("Collision strategy is not linear, quadratic, dense, robin hood or double hashing");
+  }
+}
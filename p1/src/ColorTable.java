@@ -1,5 +1,18 @@
 import java.awt.Color;
-import java.util.Random;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * @author Reagan Roush
@@ -9,64 +22,171 @@ import java.util.Random;
  * can be reduced by limiting each Color to a certain number of bits per channel.
  */
 
-public class ColorTable {
+public class ColorTable implements Histogram {
   /**
-   * Counts the number of collisions during an operation.
+   * Counts the number of collisions met by puts and increments in every table since the
+   * program started. Tables may be filled on different threads at once, so the count is
+   * atomic.
    */
-  private static int numCollisions = 0;
+  private static AtomicInteger numCollisions = new AtomicInteger();
   /**
-   * Returns the number of collisions that occurred during the most recent get or
-   * put operation.
+   * Returns the number of collisions that have occurred in all tables put together
+   * since the program started. Use getStats() for the collisions in one table.
    */
   public static int getNumCollisions() {
-    return numCollisions;
+    return numCollisions.get();
   }
 
   /**
    * Constructs a color table with a starting capacity of initialCapacity. Keys in
    * the color key space are truncated to bitsPerChannel bits. The collision resolution
-   * strategy is specified by passing either Constants.LINEAR or Constants.QUADRATIC for
-   * the collisionStrategy parameter. The rehashThrehold specifies the maximum tolerable load 
-   * factor before triggering a rehash.
+   * strategy is specified by passing Constants.LINEAR, Constants.QUADRATIC, Constants.ROBIN_HOOD
+   * or Constants.DOUBLE_HASHING for the collisionStrategy parameter (see CollisionPolicy).
+   * The rehashThrehold specifies the maximum tolerable load factor before triggering a rehash.
+   * 
+   * Passing Constants.DENSE instead gives a table with one slot for every color in the 
+   * key space, indexed directly by the packed color. Such a table never collides and 
+   * never rehashes, so initialCapacity is only checked and rehashThreshold is ignored.
+   * It is best kept to small key spaces (see Constants.MAX_DENSE_BITS).
+   * 
+   * Packed colors that are close together land in neighboring slots, so the keys of an
+   * image with many similar colors pile up into long runs. Passing Constants.FMIX32 or
+   * Constants.FIBONACCI as the hashMix parameter of the longer constructors scrambles 
+   * each key first. Such a table has a power of two for its capacity (initialCapacity is
+   * rounded up) and doubles when it grows, finding slots with a mask rather than a 
+   * remainder. The default, Constants.NO_MIX, uses the packed color itself and keeps
+   * initialCapacity as given, except under double hashing, whose strides only reach 
+   * every slot of a prime capacity, where it is rounded up to a prime of the form 4j + 3.
+   * Tables grow to such primes in any case. Dense tables are never mixed.
    * 
    * @throws RuntimeException if initialCapacity is not in the range [1..Constants.MAX_CAPACITY]
    * @throws RuntimeException if bitsPerChannel is not in the range [1..8]
-   * @throws RuntimeException if collisionStrategy is not one of Constants.LINEAR or Constants.QUADRATIC
+   * @throws RuntimeException if collisionStrategy is not one of the strategies in Constants
    * @throws RuntimeException if rehashThreshold is not in the range (0.0..1.0] for a
-   *                             linear strategy or (0.0..0.5) for a quadratic strategy
+   *                             linear, robin hood or double hashing strategy or (0.0..0.5)
+   *                             for a quadratic strategy
    */
   
   private int capacity; // current capacity of the table starting with initialCapacity
   private int bpc;
   private int strat;
+  private CollisionPolicy policy;
+  private int mix; // Constants.NO_MIX, FMIX32 or FIBONACCI
+  private int capacityBits; // log2 of the capacity of a mixed table
   private double threshold;
+  private int size; // number of keys currently in the table
 
-  private Integer[] table; // table of colors
-  private Long[] freqTable; // table of aligned color frequencies
+  private int[] table; // table of packed colors, EMPTY where there is no key
+  private long[] freqTable; // table of aligned color frequencies
+  
+  // Instrumentation for this table alone; see getStats(). It is written only by the
+  // thread filling the table, but may be read by another, such as a ColorTableMonitor's,
+  // so every field is one that can be read whole from any thread. The counts bumped on
+  // every update are written with lazySet(), which costs no more than a plain store.
+  private AtomicLongArray probeLengths = new AtomicLongArray(Constants.PROBE_BUCKETS); // updates by collisions met
+  private AtomicLong collisions = new AtomicLong();
+  private volatile int maxProbe;
+  private volatile int rehashCount;
+  private volatile long rehashNanos;
+  private List<Double> rehashLoadFactors = new CopyOnWriteArrayList<>(); // load factor that set off each rehash
+  private int lastProbe; // collisions met by the latest indexOf()
+  private boolean rehashing; // true while rehash() runs, so nested calls aren't timed twice
+  
+  /**
+   * Marks an unused slot in the table. Packed colors are never negative.
+   */
+  private static final int EMPTY = -1;
   
   public ColorTable(int initialCapacity, int bitsPerChannel, int collisionStrategy, double rehashThreshold) { 
+	  this(initialCapacity, bitsPerChannel, collisionStrategy, rehashThreshold, Constants.NO_MIX);
+  }
+
+  /**
+   * Constructs a color table as above that mixes its keys as given by hashMix.
+   * 
+   * @throws RuntimeException if hashMix is not one of Constants.NO_MIX, Constants.FMIX32
+   *                             or Constants.FIBONACCI
+   */
+  public ColorTable(int initialCapacity, int bitsPerChannel, int collisionStrategy, double rehashThreshold,
+		  int hashMix) {
+	  this(initialCapacity, bitsPerChannel, CollisionPolicy.forStrategy(collisionStrategy), rehashThreshold, hashMix);
+  }
+
+  /**
+   * Constructs a color table as above that resolves collisions with the given policy.
+   */
+  public ColorTable(int initialCapacity, int bitsPerChannel, CollisionPolicy policy, double rehashThreshold) { 
+	  this(initialCapacity, bitsPerChannel, policy, rehashThreshold, Constants.NO_MIX);
+  }
+
+  /**
+   * Constructs a color table as above that resolves collisions with the given policy
+   * and mixes its keys as given by hashMix.
+   */
+  public ColorTable(int initialCapacity, int bitsPerChannel, CollisionPolicy policy, double rehashThreshold,
+		  int hashMix) { 
 	  if((initialCapacity < 1) || (initialCapacity > Constants.MAX_CAPACITY))
 		  throw new RuntimeException("Initial capacity not in range 1...MAX_CAPACITY");
 	  if((bitsPerChannel < 1) || (bitsPerChannel > 8))
 		  throw new RuntimeException("Bits per channel not in range 1...8");
-	  if((collisionStrategy != Constants.LINEAR) && (collisionStrategy != Constants.QUADRATIC))
-		  throw new RuntimeException("Collision strategy is not linear or quadratic");
-	  if(collisionStrategy == Constants.LINEAR && (rehashThreshold < 0.0 || rehashThreshold > 1.0))
-		  throw new RuntimeException("Rehash threshold for linear strategy not in range 0.0...1.0");
-	  if(collisionStrategy == Constants.QUADRATIC && (rehashThreshold < 0.0 || rehashThreshold > 0.5))
-		  throw new RuntimeException("Rehash threshold for quadratic strategy not in range 0.0...0.5");
+	  if(rehashThreshold < 0.0 || rehashThreshold > policy.getMaxThreshold())
+		  throw new RuntimeException(String.format("Rehash threshold for %s strategy not in range 0.0...%.1f",
+				  policy, policy.getMaxThreshold()));
+	  if((hashMix != Constants.NO_MIX) && (hashMix != Constants.FMIX32) && (hashMix != Constants.FIBONACCI))
+		  throw new RuntimeException("Hash mix is not none, fmix32 or fibonacci");
 	  
-	  this.capacity = initialCapacity;
 	  this.bpc = bitsPerChannel;
-	  this.strat = collisionStrategy;
+	  this.strat = policy.getStrategy();
+	  this.policy = policy;
 	  this.threshold = rehashThreshold;
-
-	  this.table = new Integer[capacity];
-	  this.freqTable = new Long[capacity];
-	  
-	  for(int i = 0; i < freqTable.length; i++) {
-		  freqTable[i] = (long)0;
+	  this.mix = (policy == CollisionPolicy.DENSE) ? Constants.NO_MIX : hashMix;
+	  if(policy == CollisionPolicy.DENSE)
+		  this.capacity = 1 << (3 * bitsPerChannel);
+	  else if(mix != Constants.NO_MIX) {
+		  this.capacityBits = 32 - Integer.numberOfLeadingZeros(Math.min(initialCapacity, Constants.MAX_MIXED_CAPACITY) - 1);
+		  this.capacity = 1 << capacityBits;
 	  }
+	  else if(policy == CollisionPolicy.DOUBLE_HASHING)
+		  this.capacity = Util.primeCapacity(initialCapacity);
+	  else
+		  this.capacity = initialCapacity;
+
+	  this.table = newTable(capacity);
+	  this.freqTable = new long[capacity];
+  }
+
+  /**
+   * Returns an empty table for histogramming at bitsPerChannel. Small key spaces (see
+   * Constants.MAX_DENSE_BITS) get a dense table indexed directly by the packed color; 
+   * larger ones are hashed with quadratic probing.
+   */
+  public static ColorTable forBits(int bitsPerChannel) {
+	  if(bitsPerChannel <= Constants.MAX_DENSE_BITS)
+		  return new ColorTable(1, bitsPerChannel, Constants.DENSE, 1.0);
+	  return new ColorTable(1, bitsPerChannel, Constants.QUADRATIC, 0.49);
+  }
+
+  /**
+   * Returns a key array of the given capacity with every slot marked EMPTY.
+   */
+  private static int[] newTable(int capacity) {
+	  int[] keys = new int[capacity];
+	  Arrays.fill(keys, EMPTY);
+	  return keys;
+  }
+
+  /**
+   * Returns the policy this table resolves collisions with.
+   */
+  public CollisionPolicy getPolicy() {
+	  return policy;
+  }
+
+  /**
+   * Returns how this table mixes its keys: Constants.NO_MIX, FMIX32 or FIBONACCI.
+   */
+  public int getHashMix() {
+	  return mix;
   }
 
   /**
@@ -82,15 +202,115 @@ public class ColorTable {
    * count of zero. Uses Util.pack() as the hash function.
    */
   public long get(Color color) {
-	  long freq = 0;
-	  int hash = Util.pack(color, bpc);
+    return getPacked(Util.pack(color, bpc));
+  }
 
-	  for(int i = 0; i < capacity; i++) {
-		  if(table[i] != null && table[i] == hash)
-			  freq = freqTable[i];
-	  }
+  /**
+   * Returns the frequency count associated with a color that has already been packed
+   * by Util.pack() using this table's bits per channel.
+   */
+  public long getPacked(int code) {
+	  int i = indexOf(code);
+	  
+	  if(i < 0 || table[i] != code)
+		  return 0;
+    return freqTable[i];
+  }
+
+  /**
+   * Follows the probe sequence from the hash's home slot, stopping at the first slot
+   * that either holds the hash or is empty, or, under a displacing policy, that holds
+   * a key closer to its home than the hash would be. Returns that slot, or -1 if every
+   * probe landed on some other key. Every other key met along the way counts as a 
+   * collision, and the number met is left in lastProbe.
+   */
+  private int indexOf(int key) {
+	  boolean displaces = policy.displaces();
+	  int hash = hash(key);
+	  int home = home(hash);
 	  
-    return freq;
+	  for(int step = 0; step < capacity; step++) {
+		  int i = policy.probe(home, hash, step, capacity);
+		  if(table[i] == EMPTY || table[i] == key || (displaces && distance(i) < step)) {
+			  lastProbe = step;
+			  return i;
+		  }
+	  }
+	  lastProbe = capacity;
+	  return -1;
+  }
+
+  /**
+   * Returns the hash of a packed color: the color itself, or its mix. Never negative.
+   */
+  private int hash(int key) {
+	  if(mix == Constants.FMIX32)
+		  return Util.fmix32(key) >>> 1;
+	  if(mix == Constants.FIBONACCI)
+		  return Util.fibonacci(key) >>> 1;
+	  return key;
+  }
+
+  /**
+   * Returns the home slot of a hash. Fibonacci hashing keeps the highest bits of the 
+   * hash, where the multiplication has mixed in every bit of the key; fmix32 mixes all
+   * its bits equally, so the lowest will do.
+   */
+  private int home(int hash) {
+	  if(mix == Constants.FMIX32)
+		  return hash & (capacity - 1);
+	  if(mix == Constants.FIBONACCI)
+		  return hash >>> (31 - capacityBits);
+	  return hash % capacity;
+  }
+
+  /**
+   * Returns how many slots the key in slot i sits past its home slot, for a policy
+   * that probes linearly.
+   */
+  private int distance(int i) {
+	  int home = home(hash(table[i]));
+	  return (i >= home) ? i - home : i + capacity - home;
+  }
+
+  /**
+   * Makes room for the hash in slot i, which indexOf() returned for it, and counts the
+   * new key. Under a displacing policy the slot may hold a key closer to home, in which
+   * case the rest of the run moves along one slot. Returns false if there is no room.
+   */
+  private boolean claim(int i, int hash) {
+	  if(table[i] != EMPTY) {
+		  if(size == capacity)
+			  return false;
+		  int end = i;
+		  while(table[end] != EMPTY)
+			  end = (end + 1 == capacity) ? 0 : end + 1;
+		  for(int j = end; j != i; ) {
+			  int prev = (j == 0) ? capacity - 1 : j - 1;
+			  table[j] = table[prev];
+			  freqTable[j] = freqTable[prev];
+			  j = prev;
+		  }
+	  }
+	  table[i] = hash;
+	  freqTable[i] = 0;
+	  size++;
+	  return true;
+  }
+
+  /**
+   * Records a put or increment that met the given number of collisions. Reads with 
+   * get() and the keys moved by rehash() and rebuild() are not recorded, so the 
+   * statistics describe the updates made to the table.
+   */
+  private void recordProbe(int length) {
+	  if(length > 0)
+		  numCollisions.addAndGet(length);
+	  int bucket = Math.min(length, probeLengths.length() - 1);
+	  probeLengths.lazySet(bucket, probeLengths.get(bucket) + 1);
+	  collisions.lazySet(collisions.get() + length);
+	  if(length > maxProbe)
+		  maxProbe = length;
   }
 
   /**
@@ -98,59 +318,53 @@ public class ColorTable {
    * or equal to zero. Uses Util.pack() as the hash function.
    */
   public void put(Color color, long count) {
-	  int start = 0; // where to start our collision resolution
-	  int step = 1; // step of our collision resolution
-	  int hash = Util.pack(color, bpc);
-	  int curHash = hash; // hash to be modified during collision resolution
-	  
+	  putPacked(Util.pack(color, bpc), count);
+  }
+
+  /**
+   * Associates the count with a color that has already been packed by Util.pack() using
+   * this table's bits per channel. Do nothing if count is less than or equal to zero.
+   */
+  public void putPacked(int code, long count) {
 	  if(count > 0) {
-		  
-		  for(int i = hash % capacity; i < capacity; i++) {
-			  if(table[i] != null && hash == table[i]) {
-				 //System.out.println("Replacing key " + hash + " at " + i);
-				 freqTable[i] = count;
-				 i = capacity;
-			  }
-			  
-			  if((i != capacity && table[i] == null) && (curHash % capacity == i)) {
-				 //System.out.println("Placing new key " + hash + " at " + i);
-				 table[i] = hash;
-				 freqTable[i] = count;
-				 i = capacity;
-			  }
-			  
-			  if(strat == Constants.LINEAR && i != capacity && table[i] != null && (curHash % capacity == i)) {
-				  //System.out.println("Collision detected at i=" + i);
-				  numCollisions++;
-				  if(step == 1)
-					  start = i;
-				  i = ((start + step) % capacity)-1;
-				  curHash++;
-				  step++;
-			  }
-			  
-			  if(strat == Constants.QUADRATIC && i != capacity && table[i] != null && (curHash % capacity == i)) {
-				  //System.out.println("Collision detected at i=" + i);
-				  numCollisions++;
-				  if(step == 1)
-					  start = i;
-				  i = ((start + square(step)) % capacity)-1;
-				  curHash = hash + square(step);
-				  step++;
-			  }
-		  }
+		  freqTable[slotFor(code)] = count;
+		  recordProbe(lastProbe);
 	  }
-	  if(getLoadFactor() >= threshold) {
-		  // System.out.println("Rehashing table");
+	  rehashIfNeeded();
+  }
+
+  /**
+   * Associates the count with an already packed key. Does not check the load factor or
+   * record the probe, as it only moves keys that were already in a table.
+   */
+  private void insert(int hash, long count) {
+	  freqTable[slotFor(hash)] = count;
+  }
+
+  /**
+   * Returns the slot holding the key, claiming one for it if it is new. Should the probe
+   * sequence find no room, the table grows until it does, so no key is ever dropped.
+   * 
+   * @throws RuntimeException if the table is already at maximum capacity
+   */
+  private int slotFor(int key) {
+	  int i = indexOf(key);
+	  
+	  while(i < 0 || (table[i] != key && !claim(i, key))) {
 		  rehash();
+		  i = indexOf(key);
 	  }
+	  return i;
   }
 
   /**
-   * Returns the square of an integer for quadratic probing.
+   * Rehashes if the load factor has reached the threshold. Dense tables never rehash.
    */
-  private static int square(int step) {
-	  return (step * step);
+  private void rehashIfNeeded() {
+	  if(strat != Constants.DENSE && getLoadFactor() >= threshold) {
+		  // System.out.println("Rehashing table");
+		  rehash();
+	  }
   }
 
   /**
@@ -159,19 +373,150 @@ public class ColorTable {
    * count of zero.
    */
   public void increment(Color color) {
-	  boolean exists = get(color) != 0;
+	  incrementPacked(Util.pack(color, bpc));
+  }
+
+  /**
+   * Increments the frequency count associated with a color that has already been
+   * packed by Util.pack() using this table's bits per channel. The key is probed for
+   * once, and no objects are allocated unless the table has to grow.
+   */
+  public void incrementPacked(int code) {
+	  add(code, 1);
+  }
+
+  /**
+   * Adds delta to the frequency count associated with an already packed key.
+   */
+  private void add(int code, long delta) {
+	  freqTable[slotFor(code)] += delta;
+	  recordProbe(lastProbe);
+	  rehashIfNeeded();
+  }
+
+  /**
+   * Removes the color from this table, and returns the count it had. Under a displacing
+   * policy the keys after it in its run shift back a slot, and under linear probing any
+   * key that would otherwise be cut off from its home slot moves into the gap, so no
+   * tombstones are needed. Other policies cannot tell which keys passed through the
+   * slot, so the table is rebuilt at the same capacity, which takes time in proportion
+   * to the capacity: under quadratic probing or double hashing, removing many keys one
+   * at a time is slow, and building a new table from the keys to keep is faster.
+   */
+  public long remove(Color color) {
+	  int code = Util.pack(color, bpc);
+	  int i = indexOf(code);
 	  
-	  if(exists == true)
-		  put(color, get(color)+1);
-	  else
-		  put(color, 1);
+	  if(i < 0 || table[i] != code)
+		  return 0;
+	  long count = freqTable[i];
+	  table[i] = EMPTY;
+	  freqTable[i] = 0;
+	  size--;
+	  if(policy.displaces())
+		  shiftBack(i);
+	  else if(policy == CollisionPolicy.LINEAR)
+		  fillGap(i);
+	  else if(policy != CollisionPolicy.DENSE)
+		  rebuild();
+	  return count;
+  }
+
+  /**
+   * Backward-shift deletion: moves each following key of the run that is not in its
+   * home slot back by one, starting with the empty slot i.
+   */
+  private void shiftBack(int i) {
+	  for(int next = (i + 1) % capacity; table[next] != EMPTY && distance(next) > 0; next = (next + 1) % capacity) {
+		  table[i] = table[next];
+		  freqTable[i] = freqTable[next];
+		  table[next] = EMPTY;
+		  freqTable[next] = 0;
+		  i = next;
+	  }
+  }
+
+  /**
+   * Linear probing deletion (Knuth's Algorithm R): moves a following key of the run into
+   * the empty slot i whenever i lies on that key's way from home, until the run ends.
+   */
+  private void fillGap(int i) {
+	  for(int next = (i + 1) % capacity; table[next] != EMPTY; next = (next + 1) % capacity) {
+		  if(distance(next) >= ((next >= i) ? next - i : next + capacity - i)) {
+			  table[i] = table[next];
+			  freqTable[i] = freqTable[next];
+			  table[next] = EMPTY;
+			  freqTable[next] = 0;
+			  i = next;
+		  }
+	  }
+  }
+
+  /**
+   * Reinserts every key into fresh arrays of the same capacity.
+   */
+  private void rebuild() {
+	  int[] oldTable = table;
+	  long[] oldFreqTable = freqTable;
+	  
+	  table = newTable(capacity);
+	  freqTable = new long[capacity];
+	  size = 0;
+	  for(int k = 0; k < oldTable.length; k++)
+		  if(oldTable[k] != EMPTY)
+			  insert(oldTable[k], oldFreqTable[k]);
+  }
+
+  /**
+   * Adds every count in other to the count of the same color in this table, so that
+   * this table ends up holding the histogram of both. Other is left unchanged.
+   * 
+   * @throws RuntimeException if the tables use different numbers of bits per channel
+   */
+  public void merge(ColorTable other) {
+	  if(other.bpc != bpc)
+		  throw new RuntimeException("Cannot merge tables with different bits per channel");
+	  EntryIterator it = other.entries();
+	  
+	  while(it.hasNext()) {
+		  long count = it.next();
+		  add(it.key(), count);
+	  }
+  }
+
+  /**
+   * Returns a table from forBits() holding this histogram at a coarser number of
+   * bits per channel: the counts a table at bitsPerChannel would get from the same pixels.
+   * Each packed key already holds the top bits of every channel, so dropping the lower
+   * bits of each channel's field gives the coarser key without unpacking a Color. Takes
+   * time in proportion to the number of keys in this table, not the number of pixels.
+   *
+   * @throws RuntimeException if bitsPerChannel is not in the range [1..getBitsPerChannel()]
+   */
+  public ColorTable fold(int bitsPerChannel) {
+	  if(bitsPerChannel < 1 || bitsPerChannel > bpc)
+		  throw new RuntimeException("Bits per channel not in range 1..." + bpc);
+	  ColorTable folded = forBits(bitsPerChannel);
+	  int shift = bpc - bitsPerChannel;
+	  int mask = (1 << bitsPerChannel) - 1;
+	  EntryIterator it = entries();
+
+	  while(it.hasNext()) {
+		  long count = it.next();
+		  int key = it.key();
+		  int r = (key >> (2 * bpc + shift)) & mask;
+		  int g = (key >> (bpc + shift)) & mask;
+		  int b = (key >> shift) & mask;
+		  folded.add((((r << bitsPerChannel) ^ g) << bitsPerChannel) ^ b, count);
+	  }
+	  return folded;
   }
 
   /**
    * Returns the load factor for this table.
    */
   public double getLoadFactor() {
-	  return ((double)getSize()/(double)getCapacity());
+	  return ((double)size/(double)getCapacity());
   }
 
   /**
@@ -185,12 +530,7 @@ public class ColorTable {
    * Returns the number of key/value associations in this table.
    */
   public int getSize() {
-	  int keys = 0;
-	  for(int i = 0; i < capacity; i++) {
-		  if(table[i] != null)
-			  keys++;
-	  }
-    return keys;
+    return size;
   }
 
   public double getThreshold() {
@@ -201,51 +541,94 @@ public class ColorTable {
    * Returns true iff this table is empty.
    */
   public boolean isEmpty() {
-    return (getSize() == 0);
+    return (size == 0);
   }
 
   /**
    * Increases the size of the array to the smallest prime greater than double the 
-   * current size that is of the form 4j + 3, and then moves all the key/value 
-   * associations into the new array. 
+   * current size that is of the form 4j + 3, or doubles it for a mixed table, and then
+   * moves all the key/value associations into the new array. The time taken counts 
+   * towards the rehash time in getStats(), however the rehash was set off.
    * 
    * @throws RuntimeException if the table is already at maximum capacity.
    */
   private void rehash() { 
-	  if(capacity == Constants.MAX_CAPACITY)
-		  throw new RuntimeException("Table already at maximum capacity");
-	  
-	  int doubleCapacity = capacity*2;
-	  Integer[] oldTable = table;
-	  Long[] oldFreqTable = freqTable;
-	  
-	  if(doubleCapacity > Constants.MAX_CAPACITY || doubleCapacity < 0)
-		  capacity = Constants.MAX_CAPACITY;
-	  else {
-		  for(int i = doubleCapacity; i <= Constants.MAX_CAPACITY; i++) {
-			  if(Util.isPrime(i) && (i-3) % 4 == 0) {
-				  capacity = i;
-				  i = Constants.MAX_CAPACITY + 1;
-			  }
-		  }
+	  if(rehashing) {
+		  resize();
+		  return;
 	  }
+	  rehashing = true;
+	  long start = System.nanoTime();
+	  try {
+		  resize();
+	  }
+	  finally {
+		  rehashing = false;
+		  rehashNanos += System.nanoTime() - start;
+	  }
+  }
+
+  /**
+   * Does the work of rehash(). A low threshold can call for another rehash part way 
+   * through, which then happens within this one.
+   */
+  private void resize() {
+	  if(capacity == (mix == Constants.NO_MIX ? Constants.MAX_CAPACITY : Constants.MAX_MIXED_CAPACITY))
+		  throw new RuntimeException("Table already at maximum capacity");
 	  
-	  table = new Integer[capacity];
-	  freqTable = new Long[capacity];
-	  
+	  rehashCount++;
+	  rehashLoadFactors.add(getLoadFactor());
+	  int[] oldTable = table;
+	  long[] oldFreqTable = freqTable;
 	  
-	  for(int j = 0; j < freqTable.length; j++) {
-		  freqTable[j] = (long)0;
-	  }
+	  if(mix == Constants.NO_MIX)
+		  capacity = Util.nextCapacity(capacity);
+	  else
+		  capacity = 1 << ++capacityBits;
+	  table = newTable(capacity);
+	  freqTable = new long[capacity];
+	  size = 0;
 	  
+	  // The keys are already packed, so move them across directly. A low threshold can
+	  // call for another rehash part way through, exactly as put() would.
 	  for(int k = 0; k < oldTable.length; k++) {
-		  if(oldTable[k] != null) {
-			  //System.out.println("Rehashing key " + oldTable[k]);
-			  put(Util.unpack(oldTable[k], bpc), oldFreqTable[k]);
+		  if(oldTable[k] != EMPTY) {
+			  insert(oldTable[k], oldFreqTable[k]);
+			  if(getLoadFactor() >= threshold)
+				  rehash();
 		  }
 	  }
   }
 
+  /**
+   * Returns a snapshot of the instrumentation gathered by this table since it was 
+   * created or since resetStats() was last called.
+   */
+  public ColorTableStats getStats() {
+	  Double[] rehashes = rehashLoadFactors.toArray(new Double[0]);
+	  double[] loadFactors = new double[rehashes.length];
+	  for(int i = 0; i < loadFactors.length; i++)
+		  loadFactors[i] = rehashes[i];
+	  long[] lengths = new long[probeLengths.length()];
+	  for(int i = 0; i < lengths.length; i++)
+		  lengths[i] = probeLengths.get(i);
+	  return new ColorTableStats(capacity, size, getLoadFactor(), threshold, lengths,
+			  collisions.get(), maxProbe, rehashCount, rehashNanos, loadFactors);
+  }
+
+  /**
+   * Clears the instrumentation gathered by this table so far.
+   */
+  public void resetStats() {
+	  for(int i = 0; i < probeLengths.length(); i++)
+		  probeLengths.set(i, 0);
+	  collisions.set(0);
+	  maxProbe = 0;
+	  rehashCount = 0;
+	  rehashNanos = 0;
+	  rehashLoadFactors.clear();
+  }
+
   /**
    * Returns an Iterator that marches through each color in the key color space and
    * returns the sequence of frequency counts.
@@ -257,7 +640,7 @@ public class ColorTable {
 		  
 		  ColorIterator() {
 			  this.curr = 0;
-			  this.end = getCapacity()-1;
+			  this.end = getCapacity();
 		  }
 		  
 		  public boolean hasNext() {
@@ -272,6 +655,132 @@ public class ColorTable {
     return new ColorIterator();
   }
 
+  /**
+   * Returns an EntryIterator that visits each key/value association in this table once,
+   * in slot order, skipping the empty slots.
+   */
+  public EntryIterator entries() {
+	  class TableEntryIterator implements EntryIterator {
+		  int curr = -1; // slot of the association most recently returned
+		  int nextSlot = advance(0);
+		  
+		  private int advance(int from) {
+			  while(from < table.length && table[from] == EMPTY)
+				  from++;
+			  return from;
+		  }
+		  
+		  public boolean hasNext() {
+			  return nextSlot < table.length;
+		  }
+		  
+		  public long next() {
+			  curr = nextSlot;
+			  nextSlot = advance(curr + 1);
+			  return freqTable[curr];
+		  }
+		  
+		  public int key() {
+			  return table[curr];
+		  }
+	  }
+    return new TableEntryIterator();
+  }
+
+  /**
+   * Identifies a file written by save(): "CTB2" in ASCII. Files from before tables could
+   * be mixed start with "CTB1" and have no hash mix in their header.
+   */
+  private static final int MAGIC = 0x43544232;
+  private static final int OLD_MAGIC = 0x43544231;
+  /**
+   * Bytes taken up by the header of a saved table.
+   */
+  private static final int HEADER_BYTES = 6 * 4 + 8;
+
+  /**
+   * Writes this table to the given file in a compact binary form: a header holding the
+   * bits per channel, collision strategy, hash mix, capacity, size and rehash threshold, 
+   * followed by the key array and then the count array, exactly as they are laid out in
+   * memory.
+   */
+  public void save(File file) throws IOException {
+	  try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+		  out.writeInt(MAGIC);
+		  out.writeInt(bpc);
+		  out.writeInt(strat);
+		  out.writeInt(mix);
+		  out.writeInt(capacity);
+		  out.writeInt(size);
+		  out.writeDouble(threshold);
+		  for(int i = 0; i < capacity; i++)
+			  out.writeInt(table[i]);
+		  for(int i = 0; i < capacity; i++)
+			  out.writeLong(freqTable[i]);
+	  }
+  }
+
+  /**
+   * Reads back a table written by save(). The file is memory-mapped and its arrays are 
+   * copied straight into the new table, so nothing has to be rehashed, unless the table
+   * now gets a different capacity (see the constructor).
+   * 
+   * @throws IOException if the file cannot be read or was not written by save()
+   */
+  public static ColorTable load(File file) throws IOException {
+	  try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+		  long length = channel.size();
+		  if(length < HEADER_BYTES - 4 || length > Integer.MAX_VALUE)
+			  throw new IOException("Not a saved ColorTable: " + file);
+		  MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+		  int magic = buffer.getInt();
+		  if(magic != MAGIC && magic != OLD_MAGIC)
+			  throw new IOException("Not a saved ColorTable: " + file);
+		  int header = (magic == MAGIC) ? HEADER_BYTES : HEADER_BYTES - 4;
+		  if(length < header)
+			  throw new IOException("Truncated or corrupt ColorTable: " + file);
+		  int bitsPerChannel = buffer.getInt();
+		  int strategy = buffer.getInt();
+		  int hashMix = (magic == MAGIC) ? buffer.getInt() : Constants.NO_MIX;
+		  int cap = buffer.getInt();
+		  int size = buffer.getInt();
+		  double threshold = buffer.getDouble();
+		  if(cap < 1 || length != header + 12L * cap)
+			  throw new IOException("Truncated or corrupt ColorTable: " + file);
+		  
+		  ColorTable loaded;
+		  try {
+			  loaded = new ColorTable(cap, bitsPerChannel, strategy, threshold, hashMix);
+		  }
+		  catch(RuntimeException e) {
+			  throw new IOException("Corrupt ColorTable header: " + file, e);
+		  }
+		  if(loaded.capacity == cap) {
+			  buffer.asIntBuffer().get(loaded.table);
+			  buffer.position(header + 4 * cap);
+			  buffer.asLongBuffer().get(loaded.freqTable);
+			  for(int key : loaded.table)
+				  if(key != EMPTY)
+					  loaded.size++;
+		  }
+		  else {
+			  // Only a double hashing table saved before capacities were rounded up to a
+			  // prime can disagree, so its keys are put into the rounded table one by one.
+			  int[] keys = new int[cap];
+			  long[] counts = new long[cap];
+			  buffer.asIntBuffer().get(keys);
+			  buffer.position(header + 4 * cap);
+			  buffer.asLongBuffer().get(counts);
+			  for(int k = 0; k < cap; k++)
+				  if(keys[k] != EMPTY)
+					  loaded.insert(keys[k], counts[k]);
+		  }
+		  if(loaded.size != size)
+			  throw new IOException("Corrupt ColorTable header: " + file);
+		  return loaded;
+	  }
+  }
+
   /**
    * Returns a String representation of this table.
    */
@@ -279,7 +788,7 @@ public class ColorTable {
 	  String pairs = "";
 	  
 	  for(int i = 0; i < table.length; i++) {
-		  if(table[i] != null)
+		  if(table[i] != EMPTY)
 			 pairs += (i+":"+table[i]+","+freqTable[i]+" ");
 	  }
     return "[" + pairs + "]";
@@ -0,0 +1,97 @@
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * A ColorTableMonitor publishes the statistics of one ColorTable over JMX, so that a
+ * long-running vectorize can be watched from JConsole. The table keeps its statistics
+ * in fields that can be read whole from another thread, so they are read without 
+ * locking; a reading taken while the table is being filled may be slightly stale, and
+ * its attributes may come from moments a few updates apart.
+ */
+
+public class ColorTableMonitor implements ColorTableMonitorMBean {
+  private ColorTable table;
+
+  public ColorTableMonitor(ColorTable table) {
+    this.table = table;
+  }
+
+  /**
+   * Registers a monitor for the given table with the platform MBean server under the
+   * name "ColorTable:name=" + name, and returns the name it was registered under.
+   *
+   * @throws RuntimeException if the name is malformed or already in use
+   */
+  public static ObjectName register(ColorTable table, String name) {
+    try {
+      ObjectName objectName = new ObjectName("ColorTable", "name", name);
+      ManagementFactory.getPlatformMBeanServer().registerMBean(new ColorTableMonitor(table), objectName);
+      return objectName;
+    }
+    catch (JMException e) {
+      throw new RuntimeException("Could not register monitor " + name + ": " + e.getMessage());
+    }
+  }
+
+  /**
+   * Removes a monitor registered by register(). Does nothing if there is none.
+   */
+  public static void unregister(ObjectName objectName) {
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+    }
+    catch (JMException e) {
+      // Already gone.
+    }
+  }
+
+  public int getCapacity() {
+    return table.getStats().getCapacity();
+  }
+
+  public int getSize() {
+    return table.getStats().getSize();
+  }
+
+  public double getLoadFactor() {
+    return table.getStats().getLoadFactor();
+  }
+
+  public long getLookups() {
+    return table.getStats().getLookups();
+  }
+
+  public long getCollisions() {
+    return table.getStats().getCollisions();
+  }
+
+  public double getAverageProbe() {
+    return table.getStats().getAverageProbe();
+  }
+
+  public int getMaxProbe() {
+    return table.getStats().getMaxProbe();
+  }
+
+  public long[] getProbeLengths() {
+    return table.getStats().getProbeLengths();
+  }
+
+  public int getRehashCount() {
+    return table.getStats().getRehashCount();
+  }
+
+  public double getRehashMillis() {
+    return table.getStats().getRehashMillis();
+  }
+
+  public double[] getRehashLoadFactors() {
+    return table.getStats().getRehashLoadFactors();
+  }
+
+  public void resetStats() {
+    table.resetStats();
+  }
+}
@@ -0,0 +1,30 @@
+/**
+ * The management interface of a ColorTableMonitor, as seen in JConsole or any other
+ * JMX client. Every attribute is read from a fresh ColorTable.getStats() snapshot.
+ */
+
+public interface ColorTableMonitorMBean {
+  int getCapacity();
+
+  int getSize();
+
+  double getLoadFactor();
+
+  long getLookups();
+
+  long getCollisions();
+
+  double getAverageProbe();
+
+  int getMaxProbe();
+
+  long[] getProbeLengths();
+
+  int getRehashCount();
+
+  double getRehashMillis();
+
+  double[] getRehashLoadFactors();
+
+  void resetStats();
+}
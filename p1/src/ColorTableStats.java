@@ -0,0 +1,124 @@
+import java.util.Arrays;
+
+/**
+ * A ColorTableStats is a snapshot of the probe and rehash instrumentation of one
+ * ColorTable, as returned by ColorTable.getStats(). Later operations on the table do
+ * not change a snapshot that has already been taken.
+ *
+ * The probe histogram counts lookups by the number of collisions they met before
+ * finding their slot: entry i counts lookups that met i collisions, except that the
+ * last entry also counts every longer lookup. Only the lookups made by puts and
+ * increments are counted; reads with get() and the keys moved while rehashing are not.
+ */
+
+public class ColorTableStats {
+  private int capacity;
+  private int size;
+  private double loadFactor;
+  private double threshold;
+  private long[] probeLengths;
+  private long collisions;
+  private int maxProbe;
+  private int rehashCount;
+  private long rehashNanos;
+  private double[] rehashLoadFactors;
+
+  public ColorTableStats(int capacity, int size, double loadFactor, double threshold,
+      long[] probeLengths, long collisions, int maxProbe, int rehashCount, long rehashNanos,
+      double[] rehashLoadFactors) {
+    this.capacity = capacity;
+    this.size = size;
+    this.loadFactor = loadFactor;
+    this.threshold = threshold;
+    this.probeLengths = probeLengths;
+    this.collisions = collisions;
+    this.maxProbe = maxProbe;
+    this.rehashCount = rehashCount;
+    this.rehashNanos = rehashNanos;
+    this.rehashLoadFactors = rehashLoadFactors;
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  public int getSize() {
+    return size;
+  }
+
+  public double getLoadFactor() {
+    return loadFactor;
+  }
+
+  public double getThreshold() {
+    return threshold;
+  }
+
+  /**
+   * Returns a copy of the probe histogram.
+   */
+  public long[] getProbeLengths() {
+    return probeLengths.clone();
+  }
+
+  /**
+   * Returns the number of lookups made.
+   */
+  public long getLookups() {
+    long lookups = 0;
+    for (long n : probeLengths)
+      lookups += n;
+    return lookups;
+  }
+
+  /**
+   * Returns the total number of collisions met by all lookups.
+   */
+  public long getCollisions() {
+    return collisions;
+  }
+
+  /**
+   * Returns the average number of collisions met per lookup, or 0 if there were none.
+   */
+  public double getAverageProbe() {
+    long lookups = getLookups();
+    return lookups == 0 ? 0 : (double) collisions / lookups;
+  }
+
+  /**
+   * Returns the most collisions met by a single lookup.
+   */
+  public int getMaxProbe() {
+    return maxProbe;
+  }
+
+  public int getRehashCount() {
+    return rehashCount;
+  }
+
+  /**
+   * Returns the total time spent rehashing, in milliseconds.
+   */
+  public double getRehashMillis() {
+    return rehashNanos / 1e6;
+  }
+
+  /**
+   * Returns the load factor of the table at the start of each rehash, oldest first.
+   */
+  public double[] getRehashLoadFactors() {
+    return rehashLoadFactors.clone();
+  }
+
+  public String toString() {
+    // Trim the histogram after its last nonzero bucket.
+    int end = probeLengths.length;
+    while (end > 0 && probeLengths[end - 1] == 0)
+      end--;
+    return String.format("capacity %d, size %d, load %.3f, %d lookups, avg probe %.3f, max probe %d, "
+        + "%d rehashes in %.2f ms, probes %s", capacity, size, loadFactor, getLookups(),
+        getAverageProbe(), maxProbe, rehashCount, getRehashMillis(),
+        Arrays.toString(Arrays.copyOf(probeLengths, end)));
+  }
+}
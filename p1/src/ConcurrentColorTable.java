@@ -0,0 +1,310 @@
+import java.awt.Color;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A ConcurrentColorTable is a histogram of colors that many threads can add to at once,
+ * for example several decoders feeding one palette. It holds the same counts a
+ * ColorTable would, and toColorTable() turns it into one for comparing palettes.
+ *
+ * Keys are mixed with Util.fmix32(). The high bits of the mix pick one of
+ * Constants.NUM_STRIPES stripes, and the low bits pick a slot within the stripe, which
+ * is an open-addressing table with linear probing and a power of two for its capacity.
+ * A new key claims an empty slot with a compare-and-set, and a count is bumped with
+ * another, so no thread ever holds a lock.
+ *
+ * A stripe that fills past the rehash threshold grows without stopping the threads
+ * adding to it. The thread that fills it links a table twice the size after it and
+ * moves the slots across one at a time: an empty slot is claimed for a forwarding
+ * marker, and a key's count is frozen by setting its sign bit before being added to the
+ * bigger table. A thread that meets a marker or a frozen count carries on in the bigger
+ * table, where the count it adds meets the one being moved. Once every slot is moved,
+ * the stripe points at the bigger table.
+ *
+ * get() takes no lock and never retries. While a stripe grows, a get() may miss a count
+ * that is between the two tables, and getSize() is approximate.
+ */
+
+public class ConcurrentColorTable implements Histogram {
+  /**
+   * Marks an unused slot. Packed colors are never negative.
+   */
+  private static final int EMPTY = -1;
+
+  /**
+   * Marks an unused slot of a table that has been moved into the next one.
+   */
+  private static final int FORWARD = -2;
+
+  /**
+   * Set in a count once it has been moved into the next table. Counts are never negative.
+   */
+  private static final long MOVED = Long.MIN_VALUE;
+
+  private int bpc;
+  private double threshold;
+  private Stripe[] stripes;
+  private int stripeShift; // shift that leaves the stripe number of a mixed key
+
+  /**
+   * One independently growing part of the table: the oldest of its tables that has not
+   * been moved in full into the next.
+   */
+  private static class Stripe {
+    final AtomicReference<Slots> slots = new AtomicReference<>();
+  }
+
+  /**
+   * The arrays of a stripe. Once published, a Slots only changes through its atomic
+   * arrays and fields, and is followed rather than resized.
+   */
+  private static class Slots {
+    final AtomicIntegerArray keys;
+    final AtomicLongArray counts;
+    final int mask;
+    final int limit; // size at which the stripe grows
+    final AtomicInteger size = new AtomicInteger();
+    final AtomicReference<Slots> next = new AtomicReference<>(); // the table it grows into
+    volatile boolean moved; // true once every slot has been moved into next
+
+    Slots(int capacity, double threshold) {
+      keys = new AtomicIntegerArray(capacity);
+      for (int i = 0; i < capacity; i++)
+        keys.set(i, EMPTY);
+      counts = new AtomicLongArray(capacity);
+      mask = capacity - 1;
+      limit = Math.max(1, Math.min(capacity - 1, (int) (threshold * capacity)));
+    }
+  }
+
+  /**
+   * Constructs an empty table with room for about initialCapacity slots in all, for
+   * colors truncated to bitsPerChannel bits. A stripe grows once more than
+   * rehashThreshold of its slots are in use.
+   *
+   * @throws RuntimeException if initialCapacity is not in the range [1..Constants.MAX_MIXED_CAPACITY]
+   * @throws RuntimeException if bitsPerChannel is not in the range [1..8]
+   * @throws RuntimeException if rehashThreshold is not in the range (0.0..1.0)
+   */
+  public ConcurrentColorTable(int initialCapacity, int bitsPerChannel, double rehashThreshold) {
+    if (initialCapacity < 1 || initialCapacity > Constants.MAX_MIXED_CAPACITY)
+      throw new RuntimeException("Initial capacity not in range 1...MAX_MIXED_CAPACITY");
+    if (bitsPerChannel < 1 || bitsPerChannel > 8)
+      throw new RuntimeException("Bits per channel not in range 1...8");
+    if (rehashThreshold <= 0.0 || rehashThreshold >= 1.0)
+      throw new RuntimeException("Rehash threshold not in range 0.0...1.0");
+    this.bpc = bitsPerChannel;
+    this.threshold = rehashThreshold;
+    this.stripes = new Stripe[Constants.NUM_STRIPES];
+    this.stripeShift = 32 - Integer.numberOfTrailingZeros(Constants.NUM_STRIPES);
+    int perStripe = Math.max(2, 1 << (32 - Integer.numberOfLeadingZeros(Math.max(1, initialCapacity / stripes.length) - 1)));
+    for (int s = 0; s < stripes.length; s++) {
+      stripes[s] = new Stripe();
+      stripes[s].slots.set(new Slots(perStripe, threshold));
+    }
+  }
+
+  /**
+   * Returns the number of bits per channel used by the colors in this table.
+   */
+  public int getBitsPerChannel() {
+    return bpc;
+  }
+
+  /**
+   * Returns the count of the color, or zero if it is not in the table.
+   */
+  public long get(Color color) {
+    return getPacked(Util.pack(color, bpc));
+  }
+
+  /**
+   * Returns the count of an already packed color, or zero if it is not in the table.
+   */
+  public long getPacked(int key) {
+    int hash = Util.fmix32(key);
+    for (Slots slots = stripes[hash >>> stripeShift].slots.get(); slots != null; slots = slots.next.get()) {
+      for (int step = 0, i = hash & slots.mask; step <= slots.mask; step++, i = (i + 1) & slots.mask) {
+        int k = slots.keys.get(i);
+        if (k == key) {
+          long count = slots.counts.get(i);
+          if (count >= 0)
+            return count;
+          break; // moved on to the next table
+        }
+        if (k == EMPTY)
+          return 0;
+        if (k == FORWARD)
+          break;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Adds one to the count of the color.
+   */
+  public void increment(Color color) {
+    add(Util.pack(color, bpc), 1);
+  }
+
+  /**
+   * Adds one to the count of an already packed color.
+   */
+  public void incrementPacked(int key) {
+    add(key, 1);
+  }
+
+  /**
+   * Adds delta to the count of an already packed color.
+   */
+  public void add(int key, long delta) {
+    int hash = Util.fmix32(key);
+    Stripe stripe = stripes[hash >>> stripeShift];
+    addFrom(stripe, stripe.slots.get(), key, hash, delta);
+  }
+
+  /**
+   * Adds delta to the count of the key in the given table of the stripe, or in the
+   * first table after it that has room for the key and has not moved it on.
+   */
+  private void addFrom(Stripe stripe, Slots slots, int key, int hash, long delta) {
+    while (!addTo(stripe, slots, key, hash, delta)) {
+      Slots next = slots.next.get();
+      if (next == null) {
+        grow(stripe, slots);
+        next = slots.next.get();
+      }
+      slots = next;
+    }
+  }
+
+  /**
+   * Adds delta to the count of the key in the given table, claiming an empty slot for
+   * it if it is new, and starts growing the stripe if that fills the table. Returns
+   * false if the key must go in the next table instead: the table is full, or is being
+   * moved and the key's slot already has been.
+   */
+  private boolean addTo(Stripe stripe, Slots slots, int key, int hash, long delta) {
+    for (int step = 0, i = hash & slots.mask; step <= slots.mask; step++, i = (i + 1) & slots.mask) {
+      int k = slots.keys.get(i);
+      if (k == EMPTY) {
+        if (slots.keys.compareAndSet(i, EMPTY, key)) {
+          slots.size.incrementAndGet();
+          k = key;
+        }
+        else // another thread just took this slot, possibly for the same key
+          k = slots.keys.get(i);
+      }
+      if (k == FORWARD)
+        return false;
+      if (k == key) {
+        long count;
+        do {
+          count = slots.counts.get(i);
+          if (count < 0)
+            return false;
+        } while (!slots.counts.compareAndSet(i, count, count + delta));
+        if (slots.size.get() >= slots.limit)
+          grow(stripe, slots);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Links a table twice the size after the given one and moves every slot into it,
+   * unless another thread has already started to. The stripe then points past every
+   * table that has been moved in full.
+   *
+   * @throws RuntimeException if the stripe is already at maximum capacity
+   */
+  private void grow(Stripe stripe, Slots slots) {
+    if (slots.next.get() != null)
+      return;
+    int capacity = slots.mask + 1;
+    if (capacity >= Constants.MAX_MIXED_CAPACITY / stripes.length)
+      throw new RuntimeException("Table already at maximum capacity");
+    Slots bigger = new Slots(2 * capacity, threshold);
+    if (!slots.next.compareAndSet(null, bigger))
+      return;
+    for (int i = 0; i < capacity; i++) {
+      if (slots.keys.get(i) == EMPTY && slots.keys.compareAndSet(i, EMPTY, FORWARD))
+        continue;
+      int key = slots.keys.get(i);
+      long count;
+      do
+        count = slots.counts.get(i);
+      while (!slots.counts.compareAndSet(i, count, count | MOVED));
+      // A key whose first count is still on its way is left to the thread adding it,
+      // which will find the count frozen and go on to the bigger table.
+      if (count > 0)
+        addFrom(stripe, bigger, key, Util.fmix32(key), count);
+    }
+    slots.moved = true;
+    for (Slots oldest = stripe.slots.get(); oldest.moved; oldest = stripe.slots.get())
+      stripe.slots.compareAndSet(oldest, oldest.next.get());
+  }
+
+  /**
+   * Returns the number of distinct colors in this table.
+   */
+  public int getSize() {
+    int size = 0;
+    for (Stripe stripe : stripes)
+      size += stripe.slots.get().size.get();
+    return size;
+  }
+
+  /**
+   * Returns the total number of slots in this table.
+   */
+  public int getCapacity() {
+    int capacity = 0;
+    for (Stripe stripe : stripes)
+      capacity += stripe.slots.get().mask + 1;
+    return capacity;
+  }
+
+  /**
+   * Returns a ColorTable from ColorTable.forBits() holding the counts in this table. Counts
+   * added while the copy is being made may or may not be included, so the copy is exact
+   * once every add() has returned.
+   */
+  public ColorTable toColorTable() {
+    ColorTable table = ColorTable.forBits(bpc);
+    for (Stripe stripe : stripes) {
+      for (Slots slots = stripe.slots.get(); slots != null; slots = slots.next.get()) {
+        for (int i = 0; i <= slots.mask; i++) {
+          int key = slots.keys.get(i);
+          long count = slots.counts.get(i);
+          if (key >= 0 && count > 0)
+            table.putPacked(key, count);
+        }
+      }
+    }
+    return table;
+  }
+
+  /**
+   * Simple testing.
+   */
+  public static void main(String[] args) throws InterruptedException {
+    ConcurrentColorTable table = new ConcurrentColorTable(1, 8, 0.5);
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      threads[t] = new Thread(() -> {
+        for (int rgb = 0; rgb < 100000; rgb++)
+          table.increment(new Color(rgb));
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads)
+      thread.join();
+    System.out.println("size: " + table.getSize());               // Expected: 100000
+    System.out.println("count: " + table.get(new Color(12345)));  // Expected: 4
+  }
+}
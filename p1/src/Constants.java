@@ -1,9 +1,42 @@
 public interface Constants {
   public static final String TITLE = "Project 1: Palette Similarity";
   public static final String IMAGE_DIR = "images";
+  public static final String HISTOGRAM_DIR = "histograms"; // Saved ColorTables for the images.
   
   public static int LINEAR = 0;
   public static int QUADRATIC = 1;
+  public static int DENSE = 2;
+  public static int ROBIN_HOOD = 3;
+  public static int DOUBLE_HASHING = 4;
+  
+  public static int NO_MIX = 0;
+  public static int FMIX32 = 1;    // Murmur3's finalizer.
+  public static int FIBONACCI = 2; // Multiply by 2^32 / golden ratio, keep the high bits.
+  
+  public static int STRIDE = 0;     // Ways of choosing pixels for Driver.vectorizeSampled().
+  public static int RANDOM = 1;
+  public static int STRATIFIED = 2;
+  
+  public static int MAX_DENSE_BITS = 6; // Up to 2^18 slots; beyond this, hash instead.
+  
+  public static int BAND_ROWS = 64; // Rows of pixels read from an image at a time.
+  
+  public static int TILE_SIZE = 1024; // Width and height of a region decoded from an image file at a time.
+  
+  public static long STRIP_BYTES = 16L << 20; // Pixels decoded at a time from a file that can't be read by region.
+  
+  public static long QUANT_CACHE_BYTES = 128L << 20; // Quantized images kept per GUI panel.
+  
+  public static int COARSE_BITS = 3; // Bits per channel at which a PalettePyramid screens candidates.
+  
+  public static int NUM_PIVOTS = 8; // Reference paintings used to bound distances in a CorpusIndex.
+  
+  public static int MAX_LOADERS = 8; // Most images decoded at once by ImageLoader.
+  
+  public static int NUM_STRIPES = 64; // Independently growing parts of a ConcurrentColorTable.
+  
+  public static int PROBE_BUCKETS = 32; // Probe lengths tracked separately by a ColorTable.
   
   public static int MAX_CAPACITY = 2147483587; // Largest prime for an array dimension.
+  public static int MAX_MIXED_CAPACITY = 1 << 30; // Largest power of two for an array dimension.
 }
@@ -0,0 +1,284 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * A CorpusIndex answers "which k paintings are most like this one?" over a large
+ * collection of paintings without comparing the query against every one of them.
+ *
+ * Each painting's ColorTable is stored once as a normalized sparse vector: its packed
+ * colors in increasing order alongside their weights, scaled to unit length. For unit
+ * vectors the distance |a - b| = sqrt(2 - 2 cos(a, b)) shrinks as the cosine similarity
+ * grows, and it obeys the triangle inequality. So once the distance from every painting
+ * to a handful of pivot paintings has been recorded, the distance from a query q to a
+ * painting d is at least |q - p| - |d - p| for every pivot p. A query computes its distance
+ * to the pivots, scores the paintings with the smallest bounds exactly, and then only
+ * needs to score the paintings whose bound beats the k-th best distance found so far.
+ * The answers are exactly those of a brute-force scan with Util.cosineSimilarity().
+ */
+
+public class CorpusIndex {
+  private int bitsPerChannel;
+  private List<String> names = new ArrayList<>();
+  private List<int[]> keys = new ArrayList<>();        // sorted packed colors of each painting
+  private List<double[]> weights = new ArrayList<>();  // aligned unit-length weights
+  private int[] pivots;                                // indices of the pivot paintings
+  private float[][] pivotDistances = new float[0][];   // [pivot][painting] distances
+  private int numScored;                               // exact comparisons in the last query
+
+  /**
+   * A painting found by a query, along with its similarity to the query.
+   */
+  public static class Match {
+    String name;
+    double similarity;
+
+    public Match(String name, double similarity) {
+      this.name = name;
+      this.similarity = similarity;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public double getSimilarity() {
+      return similarity;
+    }
+
+    public String toString() {
+      return String.format("%s (%.4f)", name, similarity);
+    }
+  }
+
+  /**
+   * Constructs an empty index for tables using the given number of bits per channel.
+   */
+  public CorpusIndex(int bitsPerChannel) {
+    this.bitsPerChannel = bitsPerChannel;
+  }
+
+  /**
+   * Adds a painting with the given name and histogram to this index.
+   *
+   * @throws RuntimeException if the table uses a different number of bits per channel
+   *                          than this index, or if it is empty
+   */
+  public void add(String name, ColorTable table) {
+    check(table);
+    int[] k = new int[table.getSize()];
+    double[] w = new double[table.getSize()];
+    normalize(table, k, w);
+    names.add(name);
+    keys.add(k);
+    weights.add(w);
+    if (pivots != null) {
+      // Pivots are already chosen, so just extend their distance rows.
+      int doc = names.size() - 1;
+      for (int p = 0; p < pivots.length; p++) {
+        if (doc >= pivotDistances[p].length)
+          pivotDistances[p] = Arrays.copyOf(pivotDistances[p], 2 * doc + 1);
+        pivotDistances[p][doc] = (float) distance(keys.get(pivots[p]), weights.get(pivots[p]), k, w);
+      }
+    }
+  }
+
+  /**
+   * Returns the number of paintings in this index.
+   */
+  public int size() {
+    return names.size();
+  }
+
+  /**
+   * Returns the number of paintings compared exactly against the query during the most
+   * recent call to query(). A brute-force scan compares against all of them.
+   */
+  public int getNumScored() {
+    return numScored;
+  }
+
+  /**
+   * Returns the (at most) k paintings most similar to the given histogram, most similar
+   * first.
+   *
+   * @throws RuntimeException if the table uses a different number of bits per channel
+   *                          than this index, or if it is empty
+   */
+  public List<Match> query(ColorTable table, int k) {
+    check(table);
+    int n = size();
+    k = Math.min(k, n);
+    numScored = 0;
+    if (k <= 0)
+      return new ArrayList<>();
+    if (pivots == null)
+      choosePivots();
+    int[] qk = new int[table.getSize()];
+    double[] qw = new double[table.getSize()];
+    normalize(table, qk, qw);
+
+    // Lower bound on the distance from the query to every painting.
+    float[] bound = new float[n];
+    for (int p = 0; p < pivots.length; p++) {
+      float d = (float) distance(qk, qw, keys.get(pivots[p]), weights.get(pivots[p]));
+      float[] row = pivotDistances[p];
+      for (int doc = 0; doc < n; doc++)
+        bound[doc] = Math.max(bound[doc], Math.abs(d - row[doc]));
+    }
+
+    // Score the paintings with the smallest bounds first to get a good k-th best
+    // distance, then everything else whose bound could still beat it. The heap holds the
+    // k best matches so far with the worst on top.
+    PriorityQueue<Match> best = new PriorityQueue<>(k, (a, b) -> Double.compare(a.similarity, b.similarity));
+    Integer[] order = closest(bound, Math.min(n, 2 * k));
+    boolean[] scored = new boolean[n];
+    for (int doc : order) {
+      score(doc, qk, qw, best, k);
+      scored[doc] = true;
+    }
+    for (int doc = 0; doc < n; doc++) {
+      if (scored[doc])
+        continue;
+      // Pad the bound slightly so that float rounding never prunes a true match.
+      double kthDistance = Math.sqrt(Math.max(0, 2 - 2 * best.peek().similarity));
+      if (bound[doc] - 1e-5 <= kthDistance)
+        score(doc, qk, qw, best, k);
+    }
+
+    List<Match> result = new ArrayList<>(best);
+    Collections.sort(result, (a, b) -> Double.compare(b.similarity, a.similarity));
+    return result;
+  }
+
+  /**
+   * Compares painting doc against the query exactly and keeps it among the k best if it
+   * belongs there.
+   */
+  private void score(int doc, int[] qk, double[] qw, PriorityQueue<Match> best, int k) {
+    numScored++;
+    double sim = dot(qk, qw, keys.get(doc), weights.get(doc));
+    if (best.size() < k)
+      best.add(new Match(names.get(doc), sim));
+    else if (sim > best.peek().similarity) {
+      best.poll();
+      best.add(new Match(names.get(doc), sim));
+    }
+  }
+
+  /**
+   * Returns the indices of the m smallest values in bound.
+   */
+  private static Integer[] closest(float[] bound, int m) {
+    PriorityQueue<Integer> heap = new PriorityQueue<>(m + 1, (a, b) -> Float.compare(bound[b], bound[a]));
+    for (int doc = 0; doc < bound.length; doc++) {
+      if (heap.size() < m)
+        heap.add(doc);
+      else if (bound[doc] < bound[heap.peek()]) {
+        heap.poll();
+        heap.add(doc);
+      }
+    }
+    return heap.toArray(new Integer[heap.size()]);
+  }
+
+  /**
+   * Chooses pivots by farthest-first traversal: start from the first painting, and
+   * repeatedly pick the painting farthest from all the pivots chosen so far. Then
+   * records the distance from every painting to every pivot.
+   */
+  private void choosePivots() {
+    int n = size();
+    int numPivots = Math.min(Constants.NUM_PIVOTS, n);
+    pivots = new int[numPivots];
+    pivotDistances = new float[numPivots][];
+    float[] nearest = new float[n];
+    Arrays.fill(nearest, Float.MAX_VALUE);
+    int next = 0;
+    for (int p = 0; p < numPivots; p++) {
+      pivots[p] = next;
+      pivotDistances[p] = new float[n];
+      int farthest = 0;
+      for (int doc = 0; doc < n; doc++) {
+        float d = (float) distance(keys.get(next), weights.get(next), keys.get(doc), weights.get(doc));
+        pivotDistances[p][doc] = d;
+        nearest[doc] = Math.min(nearest[doc], d);
+        if (nearest[doc] > nearest[farthest])
+          farthest = doc;
+      }
+      next = farthest;
+    }
+  }
+
+  /**
+   * Fills k with the packed colors of table in increasing order and w with their
+   * counts, scaled so that w has unit length.
+   */
+  private static void normalize(ColorTable table, int[] k, double[] w) {
+    long[] counts = new long[k.length];
+    long[] order = new long[k.length];
+    EntryIterator it = table.entries();
+    for (int i = 0; it.hasNext(); i++) {
+      counts[i] = it.next();
+      // Sort on the key, carrying along the entry's position in the lower 32 bits, so
+      // that counts of any size come along unchanged.
+      order[i] = ((long) it.key() << 32) | i;
+    }
+    Arrays.sort(order);
+    double norm = 0;
+    for (int i = 0; i < k.length; i++) {
+      k[i] = (int) (order[i] >>> 32);
+      w[i] = (double) counts[(int) order[i]];
+      norm += w[i] * w[i];
+    }
+    norm = Math.sqrt(norm);
+    for (int i = 0; i < w.length; i++)
+      w[i] /= norm;
+  }
+
+  /**
+   * Returns the dot product of two sparse vectors whose keys are in increasing order.
+   */
+  private static double dot(int[] ak, double[] aw, int[] bk, double[] bw) {
+    double sum = 0;
+    int i = 0, j = 0;
+    while (i < ak.length && j < bk.length) {
+      if (ak[i] < bk[j])
+        i++;
+      else if (ak[i] > bk[j])
+        j++;
+      else
+        sum += aw[i++] * bw[j++];
+    }
+    return sum;
+  }
+
+  /**
+   * Returns the distance between two unit-length sparse vectors.
+   */
+  private static double distance(int[] ak, double[] aw, int[] bk, double[] bw) {
+    return Math.sqrt(Math.max(0, 2 - 2 * dot(ak, aw, bk, bw)));
+  }
+
+  /**
+   * Checks that the table can be compared with the paintings in this index.
+   */
+  private void check(ColorTable table) {
+    if (table.getBitsPerChannel() != bitsPerChannel)
+      throw new RuntimeException("Table does not use " + bitsPerChannel + " bits per channel");
+    if (table.isEmpty())
+      throw new RuntimeException("Cannot index an empty table");
+  }
+
+  /**
+   * Simple testing.
+   */
+  public static void main(String[] args) {
+    CorpusIndex index = new CorpusIndex(4);
+    for (Painting painting : Painting.values())
+      index.add(painting.get().getName(), Driver.vectorize(painting.get(), 4));
+    System.out.println(index.query(Driver.vectorize(Painting.MONA_LISA.get(), 4), 3));
+  }
+}
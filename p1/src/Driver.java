@@ -1,34 +1,297 @@
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
 /**
  * @author Reagan Roush
  */
 
 public class Driver {
   
-  private static int numCollisions;
+  private static long numCollisions;
   
   /**
    * Return the ColorTable associated with this image, assuming the color key space
    * is restricted to bitsPerChannel. Increment numCollisions after each increment.
    */
   public static ColorTable vectorize(Image image, int bitsPerChannel) {
-	  ColorTable table = new ColorTable(1, bitsPerChannel, Constants.QUADRATIC, 0.49);
-	  int y = 0;
-
-	  for(int x = 0; x < image.getWidth(); x++) {
-		  table.increment(image.getColor(x, y));
-		  //System.out.println("Incrementing color " + image.getColor(x, y) + "at x=" + x + ", y=" + y);
-		  
-		  if(x == image.getWidth()-1 && y < image.getHeight()-1) {
-			  y++;
-			  x = -1;
-		  }
-	  }
-	  
-	  numCollisions = table.getNumCollisions();
-	  
+    return vectorize(image, newTable(bitsPerChannel));
+  }
+
+  /**
+   * Returns an empty table for histogramming at bitsPerChannel, as chosen by 
+   * ColorTable.forBits().
+   */
+  public static ColorTable newTable(int bitsPerChannel) {
+    return ColorTable.forBits(bitsPerChannel);
+  }
+
+  /**
+   * Adds every pixel of the image to the given table and returns the table.
+   */
+  public static ColorTable vectorize(Image image, ColorTable table) {
+    // The table may be reused, so only count the collisions met this time.
+    long before = table.getStats().getCollisions();
+    addRows(image, 0, image.getHeight(), table);
+    numCollisions += table.getStats().getCollisions() - before;
+    return table;
+  }
+
+  /**
+   * Adds the pixels in rows [y0, y1) of the image to the given table, which may be a
+   * ConcurrentColorTable shared with other threads. The rows are read Constants.BAND_ROWS
+   * at a time into one reusable buffer and fed to the table as packed ints, so no Color
+   * objects are created.
+   */
+  public static void addRows(Image image, int y0, int y1, Histogram table) {
+    int bitsPerChannel = table.getBitsPerChannel();
+    int[] buffer = null;
+    for (int y = y0; y < y1; y += Constants.BAND_ROWS) {
+      int rows = Math.min(Constants.BAND_ROWS, y1 - y);
+      buffer = image.getRGB(y, rows, buffer);
+      for (int i = 0, n = rows * image.getWidth(); i < n; i++)
+        table.incrementPacked(Util.pack(buffer[i], bitsPerChannel));
+    }
+  }
+
+  /**
+   * Returns a histogram at bitsPerChannel of about the given fraction of the pixels of
+   * the image, chosen by the given sampling mode; see the method below.
+   */
+  public static ColorTable vectorizeSampled(Image image, int bitsPerChannel, double fraction, int sampling) {
+    return vectorizeSampled(image, newTable(bitsPerChannel), fraction, sampling, new Random());
+  }
+
+  /**
+   * Adds about the given fraction of the pixels of the image to the given table, and
+   * returns the table. The counts are those of the sample, not scaled up, which makes no
+   * difference to Util.cosineSimilarity(). Taking the pixels in row-major order, and with
+   * k = 1 / fraction, the sampling modes are:
+   * 
+   *   Constants.STRIDE      every k-th pixel, starting with the first.
+   *   Constants.RANDOM      each pixel independently with probability fraction, using
+   *                         rand to skip ahead a geometrically distributed distance.
+   *   Constants.STRATIFIED  one pixel chosen with rand from each run of k pixels.
+   * 
+   * Stride sampling is the cheapest but can alias with regular patterns in the image;
+   * stratified sampling covers the image as evenly without that risk. Both take exactly
+   * one pixel in k, so they only accept fractions of the form 1 / k, no smaller than one
+   * pixel of the image, and the fraction passed on to Util.cosineSimilarity() is then
+   * the one actually sampled.
+   * 
+   * @throws RuntimeException if fraction is not in the range (0.0..1.0]
+   * @throws RuntimeException if sampling is not one of the modes above
+   * @throws RuntimeException if sampling is STRIDE or STRATIFIED and fraction is not 1 / k
+   *                             for a whole number k of at most the number of pixels
+   */
+  public static ColorTable vectorizeSampled(Image image, ColorTable table, double fraction, int sampling, 
+      Random rand) {
+    if (fraction <= 0 || fraction > 1)
+      throw new RuntimeException("Sampling fraction not in range 0.0...1.0");
+    if (sampling != Constants.STRIDE && sampling != Constants.RANDOM && sampling != Constants.STRATIFIED)
+      throw new RuntimeException("Sampling mode is not stride, random or stratified");
+    int bitsPerChannel = table.getBitsPerChannel();
+    int width = image.getWidth();
+    long pixels = (long) width * image.getHeight();
+    long k = Math.round(1 / fraction);
+    if (sampling != Constants.RANDOM && (Math.abs(1 / fraction - k) > 1e-9 * k || k > pixels))
+      throw new RuntimeException("Stride and stratified sampling take 1 / k of the pixels, for k up to " 
+          + pixels + ", not " + fraction);
+    double logMiss = Math.log(1 - fraction); // -infinity when every pixel is taken
+    long next = (sampling == Constants.STRATIFIED) ? rand.nextInt((int) k) : (sampling == Constants.RANDOM) ? -1 : 0;
+    if (sampling == Constants.RANDOM)
+      next += 1 + (long) (Math.log(1 - rand.nextDouble()) / logMiss);
+    // Each sampled pixel is read on its own, so the pixels that are skipped cost nothing.
+    while (next < pixels) {
+      table.incrementPacked(Util.pack(image.getRGB((int) (next % width), (int) (next / width)), bitsPerChannel));
+      if (sampling == Constants.STRIDE)
+        next += k;
+      else if (sampling == Constants.RANDOM)
+        next += 1 + (long) (Math.log(1 - rand.nextDouble()) / logMiss);
+      else {
+        // Move to a random pixel of the next run, which may be cut short by the end.
+        long run = (next / k + 1) * k;
+        next = run + rand.nextInt((int) Math.min(k, Math.max(1, pixels - run)));
+      }
+    }
+    return table;
+  }
+
+  /**
+   * Returns the histogram of the image file at bitsPerChannel, decoded a region at a time
+   * by vectorizeTiled() so that the whole image is never in memory at once. The regions
+   * are chosen to suit the file's format, as described there.
+   * 
+   * @throws IOException if the file cannot be read as an image
+   */
+  public static ColorTable vectorize(File file, int bitsPerChannel) throws IOException {
+    return vectorizeTiled(file, newTable(bitsPerChannel), 0, 0);
+  }
+
+  /**
+   * Adds every pixel of the image file to the given table and returns the table. The 
+   * file is decoded one tileWidth by tileHeight region at a time with an ImageReader, and
+   * each region is counted and dropped before the next is read, so memory use depends
+   * on the size of a tile rather than that of the image. The counts are the same as 
+   * those of vectorize(new Image(file.getPath()), table).
+   * 
+   * Readers for sequential formats such as JPEG decode from the top of the image down 
+   * to each region, so wide, short tiles are the quickest to read; a tile as wide as the
+   * image only decodes each row once per row of tiles.
+   * 
+   * A tileWidth or tileHeight of 0 leaves the choice to this method. Formats whose reader
+   * can get at a region directly are read in square tiles of Constants.TILE_SIZE, and
+   * all others in strips as wide as the image and as tall as fits in
+   * Constants.STRIP_BYTES, so that no row is decoded more than once or twice.
+   * 
+   * @throws IOException if the file cannot be read as an image
+   */
+  public static ColorTable vectorizeTiled(File file, ColorTable table, int tileWidth, int tileHeight) 
+      throws IOException {
+    try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+      java.util.Iterator<ImageReader> readers = (in == null) ? null : ImageIO.getImageReaders(in);
+      if (readers == null || !readers.hasNext())
+        throw new IOException("Image could not be read: " + file);
+      ImageReader reader = readers.next();
+      try {
+        reader.setInput(in, false, true);
+        int width = reader.getWidth(0), height = reader.getHeight(0);
+        if (tileWidth <= 0 || tileHeight <= 0) {
+          if (reader.isRandomAccessEasy(0) || reader.isImageTiled(0)) 
+            tileWidth = tileHeight = Constants.TILE_SIZE;
+          else {
+            tileWidth = width;
+            tileHeight = (int) Math.max(1, Math.min(height, Constants.STRIP_BYTES / (4L * width)));
+          }
+        }
+        int bitsPerChannel = table.getBitsPerChannel();
+        ImageReadParam param = reader.getDefaultReadParam();
+        int[] buffer = new int[Math.min(tileWidth, width) * Math.min(tileHeight, height)];
+        for (int y = 0; y < height; y += tileHeight) {
+          for (int x = 0; x < width; x += tileWidth) {
+            int w = Math.min(tileWidth, width - x), h = Math.min(tileHeight, height - y);
+            param.setSourceRegion(new Rectangle(x, y, w, h));
+            BufferedImage tile = reader.read(0, param);
+            tile.getRGB(0, 0, w, h, buffer, 0, w);
+            for (int i = 0, n = w * h; i < n; i++)
+              table.incrementPacked(Util.pack(buffer[i], bitsPerChannel));
+          }
+        }
+      }
+      finally {
+        reader.dispose();
+      }
+    }
+    return table;
+  }
+
+  /**
+   * Returns the same histogram as vectorize(image, bitsPerChannel), built in parallel
+   * on the common fork/join pool.
+   */
+  public static ColorTable vectorizeParallel(Image image, int bitsPerChannel) {
+    return vectorizeParallel(image, bitsPerChannel, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Returns the same histogram as vectorize(image, bitsPerChannel), built in parallel
+   * on the given pool. The image is split into bands of rows, each band is counted into
+   * its own table, and the tables are merged pairwise on the way back up. Counts are
+   * exact sums, so the result holds exactly the same counts as the sequential one.
+   */
+  public static ColorTable vectorizeParallel(Image image, int bitsPerChannel, ForkJoinPool pool) {
+    // Every band allocates a whole table, so aim for one band per worker (halving leaves
+    // fewer than twice as many), but don't bother splitting below the size of one 
+    // buffered read.
+    int parallelism = pool.getParallelism();
+    int leafRows = Math.max(Constants.BAND_ROWS, (image.getHeight() + parallelism - 1) / parallelism);
+    return pool.invoke(new BandTask(image, 0, image.getHeight(), bitsPerChannel, leafRows));
+  }
+
+  /**
+   * Histograms rows [y0, y1) of an image, splitting in half until at most leafRows
+   * rows remain.
+   */
+  private static class BandTask extends RecursiveTask<ColorTable> {
+    private static final long serialVersionUID = 1L;
+    private Image image;
+    private int y0, y1, bitsPerChannel, leafRows;
+
+    BandTask(Image image, int y0, int y1, int bitsPerChannel, int leafRows) {
+      this.image = image;
+      this.y0 = y0;
+      this.y1 = y1;
+      this.bitsPerChannel = bitsPerChannel;
+      this.leafRows = leafRows;
+    }
+
+    protected ColorTable compute() {
+      if (y1 - y0 <= leafRows) {
+        ColorTable table = newTable(bitsPerChannel);
+        addRows(image, y0, y1, table);
+        return table;
+      }
+      int mid = (y0 + y1) >>> 1;
+      BandTask top = new BandTask(image, y0, mid, bitsPerChannel, leafRows);
+      top.fork();
+      ColorTable bottom = new BandTask(image, mid, y1, bitsPerChannel, leafRows).compute();
+      ColorTable table = top.join();
+      table.merge(bottom);
+      return table;
+    }
+  }
+
+  /**
+   * Adds every pixel of the image to the given shared table in parallel on the given
+   * pool, and returns the table. Unlike vectorizeParallel(), every band is counted
+   * straight into the one table, so there is nothing to merge, and other threads may
+   * be adding to the table at the same time.
+   */
+  public static ConcurrentColorTable vectorizeConcurrent(Image image, ConcurrentColorTable table, ForkJoinPool pool) {
+    int leafRows = Math.max(Constants.BAND_ROWS, image.getHeight() / (4 * pool.getParallelism()));
+    pool.invoke(new SharedBandTask(image, 0, image.getHeight(), table, leafRows));
     return table;
   }
 
+  /**
+   * Adds rows [y0, y1) of an image to a shared table, splitting in half until at most
+   * leafRows rows remain.
+   */
+  private static class SharedBandTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private Image image;
+    private int y0, y1, leafRows;
+    private ConcurrentColorTable table;
+
+    SharedBandTask(Image image, int y0, int y1, ConcurrentColorTable table, int leafRows) {
+      this.image = image;
+      this.y0 = y0;
+      this.y1 = y1;
+      this.table = table;
+      this.leafRows = leafRows;
+    }
+
+    protected void compute() {
+      if (y1 - y0 <= leafRows) {
+        addRows(image, y0, y1, table);
+        return;
+      }
+      int mid = (y0 + y1) >>> 1;
+      invokeAll(new SharedBandTask(image, y0, mid, table, leafRows),
+          new SharedBandTask(image, mid, y1, table, leafRows));
+    }
+  }
+
   /**
    * Return the result of running Util.cosineSimilarity() on the vectorized images.
    * 
@@ -70,6 +333,9 @@ public class Driver {
    */  
   public static void main(String[] args) {
     System.out.println(Constants.TITLE);
+    // Every painting is used below, so start decoding them all at once.
+    for (Painting painting : Painting.values())
+      painting.load();
     Image mona = Painting.MONA_LISA.get();
     Image starry = Painting.STARRY_NIGHT.get();
     Image christina = Painting.CHRISTINAS_WORLD.get();
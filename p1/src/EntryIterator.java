@@ -0,0 +1,11 @@
+/**
+ * Marches through only the occupied slots of a ColorTable. Each call to next() moves
+ * on to the next key/value association and returns its count; key() then returns the
+ * packed color of that same association.
+ */
+
+public interface EntryIterator {
+  long next();
+  int key();
+  boolean hasNext();
+}
@@ -8,11 +8,12 @@ import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Random;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.Future;
 import javax.swing.Box;
 import javax.swing.BoxLayout;
 import javax.swing.JButton;
@@ -29,6 +30,8 @@ public class GUI extends JFrame {
   private Map<Integer, Double> simCache = new HashMap<>();
   // Images to compare.
   private Image leftImage, rightImage;
+  // Histograms of the images at every bits per channel, built on first use.
+  private PalettePyramid leftPyramid, rightPyramid;
   // Display panels for images.
   private ArrayList<ImagePanel> panels = new ArrayList<>();
   // Indicative of whether or not the xray is turned on (initially false).
@@ -160,13 +163,18 @@ public class GUI extends JFrame {
 
   /**
    * Returns the similarity of the two images using however many bits per channel
-   * appear on bitSelector. Results are memoized to speed the process.
+   * appear on bitSelector. Results are memoized to speed the process, and each image
+   * is only histogrammed once, whichever positions the slider visits.
    */
   private double similarity() {
     int bitsPerChannel = bitSelector.getValue();
     if (simCache.containsKey(bitsPerChannel))
       return simCache.get(bitsPerChannel);
-    double sim = Driver.similarity(leftImage, rightImage, bitsPerChannel);
+    if (leftPyramid == null) {
+      leftPyramid = new PalettePyramid(leftImage);
+      rightPyramid = new PalettePyramid(rightImage);
+    }
+    double sim = leftPyramid.similarity(rightPyramid, bitsPerChannel);
     simCache.put(bitsPerChannel, sim); // Jot down for later.
     return sim;
   }
@@ -181,6 +189,14 @@ public class GUI extends JFrame {
     private Image image;   
     // The quantized image being displayed.
     private Image quantImage;
+    // Quantized versions of image keyed on bits per channel, least recently used first.
+    private Map<Integer, Image> quantCache = new LinkedHashMap<>(16, 0.75f, true);
+    // Total size in bytes of the images in quantCache.
+    private long quantCacheBytes;
+    // The most recent xray, along with the color and bits per channel it was made for.
+    private Image xrayImage;
+    private Color xrayColor;
+    private int xrayBits;
     // A timer to trigger the xray effect during a long press.
     private Timer timer; 
 
@@ -222,12 +238,48 @@ public class GUI extends JFrame {
     
     public void paintComponent(Graphics g) {
       super.paintComponent(g);
-      quantImage = image.quantize(bitSelector.getValue());
-      if (xrayEffect) 
-        xray(colorBox.getBackground(), quantImage).draw(g); 
+      int bitsPerChannel = bitSelector.getValue();
+      quantImage = quantize(bitsPerChannel);
+      if (xrayEffect) {
+        Color color = colorBox.getBackground();
+        if (xrayImage == null || !color.equals(xrayColor) || bitsPerChannel != xrayBits) {
+          xrayImage = xray(color, quantImage);
+          xrayColor = color;
+          xrayBits = bitsPerChannel;
+        }
+        xrayImage.draw(g); 
+      }
       else
         quantImage.draw(g);   
     }
+
+    /**
+     * Returns image quantized to the given bits per channel, reusing an earlier result
+     * when there is one. Once the cached images take up more than
+     * Constants.QUANT_CACHE_BYTES, the least recently used ones are dropped.
+     */
+    private Image quantize(int bitsPerChannel) {
+      Image quantized = quantCache.get(bitsPerChannel);
+      if (quantized == null) {
+        quantized = image.quantize(bitsPerChannel);
+        quantCache.put(bitsPerChannel, quantized);
+        quantCacheBytes += sizeInBytes(quantized);
+        // Never evict the image we are about to draw.
+        while (quantCacheBytes > Constants.QUANT_CACHE_BYTES && quantCache.size() > 1) {
+          Integer eldest = quantCache.keySet().iterator().next();
+          quantCacheBytes -= sizeInBytes(quantCache.remove(eldest));
+        }
+      }
+      return quantized;
+    }
+  }
+
+  /**
+   * Returns the number of bytes taken up by the pixels of a quantized image, which are
+   * stored as one int each.
+   */
+  private static long sizeInBytes(Image image) {
+    return 4L * image.getWidth() * image.getHeight();
   }
 
   /**
@@ -243,28 +295,25 @@ public class GUI extends JFrame {
    * color are white.
    */
   private static Image xray(Color color, Image image) {
-    Image copy = new Image(image);
-    for (int x = 0; x < copy.getWidth(); x++)
-      for (int y = 0; y < copy.getHeight(); y++)
-        copy.setColor(x, y, copy.getColor(x, y).equals(color) ? Color.WHITE : Color.BLACK);
-    return copy;
+    return image.xray(color);
   }
 
   /**
    * Fires up the GUI with two randomly selected images.
    */
   public static void main(String[] args) {
-    // Load all the paintings in the image directory.
-    List<Image> paintings = new ArrayList<>();
-    for (File file : new File(Constants.IMAGE_DIR).listFiles())
-      paintings.add(new Image(file.getPath()));
-    int n = paintings.size();
+    // List all the paintings in the image directory.
+    File[] paintings = new File(Constants.IMAGE_DIR).listFiles();
+    int n = paintings.length;
     // Choose two different images, at random and with equal probability.
     Random rand = new Random();
     int i = rand.nextInt(n), j = rand.nextInt(n - 1);
     if (j >= i) 
       j++;
-    Image pic1 = paintings.get(i), pic2 = paintings.get(j);
+    // Decode just those two, side by side.
+    Future<Image> future1 = ImageLoader.load(paintings[i].getPath());
+    Future<Image> future2 = ImageLoader.load(paintings[j].getPath());
+    Image pic1 = ImageLoader.await(future1), pic2 = ImageLoader.await(future2);
     SwingUtilities.invokeLater(() -> new GUI(pic1, pic2));    
   }
 }
@@ -0,0 +1,17 @@
+/**
+ * Anything that counts packed colors: a ColorTable, or a ConcurrentColorTable shared by
+ * several threads. Driver.addRows() feeds the pixels of an image to either through this.
+ */
+
+public interface Histogram {
+  /**
+   * Returns the number of bits per channel colors are packed to for this histogram.
+   */
+  int getBitsPerChannel();
+
+  /**
+   * Adds one to the count of a color already packed by Util.pack() to
+   * getBitsPerChannel() bits per channel.
+   */
+  void incrementPacked(int key);
+}
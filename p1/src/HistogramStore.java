@@ -0,0 +1,104 @@
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A HistogramStore keeps the ColorTables of image files on disk, so that an image only
+ * has to be decoded and histogrammed once. A saved table is used for as long as it is
+ * newer than its image file; after that the image is decoded again and the table is
+ * replaced. Tables are read back with ColorTable.load(), which memory-maps the file.
+ */
+
+public class HistogramStore {
+  private File dir;
+
+  /**
+   * Constructs a store that keeps its tables in the given directory, creating the
+   * directory if necessary.
+   */
+  public HistogramStore(File dir) {
+    this.dir = dir;
+    dir.mkdirs();
+  }
+
+  /**
+   * Constructs a store that keeps its tables in Constants.HISTOGRAM_DIR.
+   */
+  public HistogramStore() {
+    this(new File(Constants.HISTOGRAM_DIR));
+  }
+
+  /**
+   * Returns the file holding the table of the given image at the given bits per channel.
+   * The image's full path is hashed into the name so that images with the same name in
+   * different directories do not clash.
+   */
+  private File tableFile(File image, int bitsPerChannel) {
+    String path = image.getAbsolutePath();
+    return new File(dir, String.format("%s-%08x-%d.ct", image.getName(), path.hashCode(), bitsPerChannel));
+  }
+
+  /**
+   * Returns true iff an up-to-date table of the given image is on disk.
+   */
+  public boolean isCached(File image, int bitsPerChannel) {
+    File file = tableFile(image, bitsPerChannel);
+    return file.exists() && file.lastModified() >= image.lastModified();
+  }
+
+  /**
+   * Returns the histogram of the given image file at the given bits per channel, from
+   * disk if an up-to-date copy is there, and otherwise by decoding the image a tile at a
+   * time and then saving the result for next time. A saved table that cannot be read
+   * is rebuilt, and failing to save is not an error, just a missed chance to skip the
+   * work next time.
+   * 
+   * @throws RuntimeException if the image cannot be read
+   */
+  public ColorTable vectorize(File image, int bitsPerChannel) {
+    File file = tableFile(image, bitsPerChannel);
+    if (isCached(image, bitsPerChannel)) {
+      try {
+        return ColorTable.load(file);
+      }
+      catch (IOException e) {
+        System.out.println("Rebuilding unreadable histogram: " + e.getMessage());
+      }
+    }
+    ColorTable table;
+    try {
+      table = Driver.vectorize(image, bitsPerChannel);
+    }
+    catch (IOException e) {
+      throw new RuntimeException(e.getMessage(), e);
+    }
+    // Write to a temporary file first so that a reader never sees a partial table.
+    File temp = new File(dir, file.getName() + ".tmp");
+    try {
+      table.save(temp);
+      if (!temp.renameTo(file)) {
+        file.delete();
+        if (!temp.renameTo(file))
+          throw new IOException("Could not rename " + temp + " to " + file);
+      }
+    }
+    catch (IOException e) {
+      System.out.println("Could not save histogram: " + e.getMessage());
+      temp.delete();
+    }
+    return table;
+  }
+
+  /**
+   * Simple testing.
+   */
+  public static void main(String[] args) {
+    HistogramStore store = new HistogramStore();
+    for (File file : new File(Constants.IMAGE_DIR).listFiles()) {
+      boolean cached = store.isCached(file, 8);
+      long start = System.nanoTime();
+      ColorTable table = store.vectorize(file, 8);
+      System.out.println(String.format("%-14s %8d colors in %6.1f ms (%s)", file.getName(),
+          table.getSize(), (System.nanoTime() - start) / 1e6, cached ? "from disk" : "decoded"));
+    }
+  }
+}
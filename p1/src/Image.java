@@ -1,4 +1,5 @@
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.awt.Color;
 import java.awt.Graphics;
 import java.io.File;
@@ -17,17 +18,15 @@ public class Image {
 	private int width, height;
 	private String name;
 	
+	// Alpha bits of a fully opaque ARGB pixel.
+	private static final int OPAQUE = 0xFF000000;
+	
 	/**
 	 * Load an external image from the file system. Exits on error.
 	 */
 	public Image(String filename) {
 		try {
-		  String[] words = filename.split("/");
-		  int last = words.length - 1;
-		  name = words[last].substring(0, words[last].indexOf("."));
-			image = ImageIO.read(new File(filename));
-			width = image.getWidth();
-			height = image.getHeight();
+			load(filename);
 		} 
 		catch (IOException e) {
 			System.out.println("Image could not be read: " + filename);
@@ -35,6 +34,33 @@ public class Image {
 		}
 	}
 	
+	private Image() {
+	}
+	
+	/**
+	 * Load an external image from the file system. Unlike the constructor, this throws
+	 * on error, so that it can be used off the main thread, where exiting would take
+	 * down the whole program from under its caller.
+	 * 
+	 * @throws IOException if the file cannot be read or is not an image
+	 */
+	public static Image read(String filename) throws IOException {
+		Image image = new Image();
+		image.load(filename);
+		return image;
+	}
+	
+	private void load(String filename) throws IOException {
+	  String[] words = filename.split("/");
+	  int last = words.length - 1;
+	  name = words[last].substring(0, words[last].indexOf("."));
+		image = ImageIO.read(new File(filename));
+		if (image == null)
+			throw new IOException("Not a readable image: " + filename);
+		width = image.getWidth();
+		height = image.getHeight();
+	}
+	
 	/**
 	 * Construct a copy of source in this image.
 	 */
@@ -48,18 +74,60 @@ public class Image {
     g.dispose();
 	}
 	
+	/**
+	 * Construct a copy of source that is scale times as wide and as tall, with each
+	 * pixel repeated in a scale by scale block.
+	 */
+	public Image(Image source, int scale) {
+    this.width = source.width * scale;
+    this.height = source.height * scale;
+    this.name = source.name;
+    this.image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    Graphics g = this.image.getGraphics();
+    g.drawImage(source.image, 0, 0, width, height, null);
+    g.dispose();
+	}
+	
 	/**
 	 * Return a quantized version of this image where the given number of lower-order bits 
 	 * of each color component are masked to zeroes.
 	 */
 	public Image quantize(int bitsPerChannel) {
+	  if (bitsPerChannel < 1 || bitsPerChannel > 8)
+	    throw new RuntimeException("Unsupported number of bits per channel; use an int in the range [1..8]");
 	  Image copy = new Image(this);
-	  for (int x = 0; x < getWidth(); x++)
-	    for (int y = 0; y < getHeight(); y++)
-	      copy.setColor(x, y, Util.unpack(Util.pack(getColor(x, y), bitsPerChannel), bitsPerChannel));
+	  // Keep the top bitsPerChannel bits of each channel, all in one mask, and make the 
+	  // pixel opaque, just as packing and unpacking each pixel's Color would.
+	  int channel = (0xFF << (8 - bitsPerChannel)) & 0xFF;
+	  int mask = (channel << 16) | (channel << 8) | channel;
+	  int[] pixels = copy.pixels();
+	  for (int i = 0; i < pixels.length; i++)
+	    pixels[i] = (pixels[i] & mask) | OPAQUE;
 	  return copy;
 	}
 	
+	/**
+	 * Return a black and white version of this image, where pixels matching color are 
+	 * white. Pixels are compared as opaque colors, as getColor() returns them.
+	 */
+	public Image xray(Color color) {
+	  Image copy = new Image(this);
+	  int target = color.getRGB(), white = Color.WHITE.getRGB(), black = Color.BLACK.getRGB();
+	  int[] pixels = copy.pixels();
+	  for (int i = 0; i < pixels.length; i++)
+	    pixels[i] = (pixels[i] | OPAQUE) == target ? white : black;
+	  return copy;
+	}
+	
+	/**
+	 * Returns the array of ARGB ints backing this image, which must be of type
+	 * TYPE_INT_ARGB, as every copy made by the copy constructors is. Writes to the 
+	 * array change the image directly.
+	 */
+	private int[] pixels() {
+	  return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+	}
+	
 	/**
 	 * Returns the name associated with this image.
 	 */
@@ -92,6 +160,29 @@ public class Image {
 	    return Color.WHITE;
 	  }
 	}
+
+  /**
+   * Returns the ARGB color in this image at coordinate (x, y), without making a Color.
+   */	
+	public int getRGB(int x, int y) {
+	  return image.getRGB(x, y);
+	}
+	
+	/**
+	 * Copies the colors of the given number of full rows, starting at row y, into buffer 
+	 * as (A)RGB ints in row-major order, and returns buffer. A new buffer is allocated if
+	 * the given one is null or too small. Reusing one buffer reads a whole image without
+	 * allocating anything per pixel.
+	 */
+	public int[] getRGB(int y, int rows, int[] buffer) {
+	  if (buffer == null || buffer.length < width * rows)
+	    buffer = new int[width * rows];
+	  int type = image.getType();
+	  if (type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB)
+	    // Stored as packed ints already, so no color model conversion is needed.
+	    return (int[]) image.getRaster().getDataElements(0, y, width, rows, buffer);
+	  return image.getRGB(0, y, width, rows, buffer, 0, width);
+	}
 	
 	/**
 	 * Sets the pixel at location (x, y) to the specified color.
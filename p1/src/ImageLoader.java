@@ -0,0 +1,64 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Decodes image files in the background on a small, fixed pool of daemon threads, so
+ * that several images can be decoded at once without flooding the machine with threads
+ * or keeping the program alive once it is done.
+ */
+
+public class ImageLoader {
+  private static final ExecutorService pool = Executors.newFixedThreadPool(
+      Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), Constants.MAX_LOADERS)),
+      task -> {
+        Thread thread = new Thread(task, "image-loader");
+        thread.setDaemon(true);
+        return thread;
+      });
+
+  /**
+   * Starts decoding the given image file and returns a Future for the result. If the
+   * file cannot be read, the Future fails with the IOException.
+   */
+  public static Future<Image> load(String filename) {
+    return pool.submit(() -> Image.read(filename));
+  }
+
+  /**
+   * Starts decoding all of the given image files at once and returns Futures for the
+   * results, in the same order.
+   */
+  public static List<Future<Image>> loadAll(List<String> filenames) {
+    List<Future<Image>> images = new ArrayList<>();
+    for (String filename : filenames)
+      images.add(load(filename));
+    return images;
+  }
+
+  /**
+   * Runs the given task on the loader pool.
+   */
+  static void execute(Runnable task) {
+    pool.execute(task);
+  }
+
+  /**
+   * Waits for an image to finish decoding and returns it.
+   */
+  public static Image await(Future<Image> image) {
+    try {
+      return image.get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while loading an image", e);
+    }
+    catch (ExecutionException e) {
+      throw new RuntimeException("Image could not be loaded", e.getCause());
+    }
+  }
+}
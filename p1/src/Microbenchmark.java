@@ -0,0 +1,454 @@
+import java.awt.Color;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Repeatable measurements of the hot paths of ColorTable, Image and Util, for catching
+ * regressions rather than exploring, which is what Benchmark is for. Every benchmark
+ * runs on the paintings in Constants.IMAGE_DIR, over every combination of the parameters
+ * it depends on, with warmup iterations that are thrown away followed by measured
+ * iterations. Each iteration repeats the benchmark for at least the iteration time and
+ * reports the average time per operation. Results are printed as a table and, if asked
+ * for, written as JSON in the layout JMH uses, one record per benchmark and combination
+ * of parameters.
+ *
+ * Run from the project directory after building into bin, for example:
+ *
+ *   java -cp bin Microbenchmark -p bpc=6,8 -p strategy=linear,robinhood -rff results.json
+ *
+ * Options:
+ *
+ *   -p name=v1,v2,...  values of a parameter: capacity (initial capacity), bpc,
+ *                      strategy (linear, quadratic, dense, robinhood, double),
+ *                      threshold (rehash threshold) or mix (none, fmix32, fibonacci).
+ *                      Defaults are in DEFAULTS.
+ *   -wi n              warmup iterations (default 2)
+ *   -i n               measured iterations (default 3)
+ *   -r ms              least time per iteration in milliseconds (default 500)
+ *   -rff file          write the results to file as JSON
+ *   name ...           only run the benchmarks whose names contain one of these
+ *
+ * Combinations that a ColorTable rejects, such as quadratic probing above a threshold of
+ * 0.5, are skipped, as are dense tables above Constants.MAX_DENSE_BITS. Dense tables do
+ * not hash, so they are run without a mix only.
+ */
+
+public class Microbenchmark {
+  private static final String[] PARAMS = { "capacity", "bpc", "strategy", "threshold", "mix" };
+  private static final String[] DEFAULTS = { "1", "6,8", "linear,quadratic,robinhood,double", "0.49,0.75", "none" };
+  private static final int[] STRATEGIES = { Constants.LINEAR, Constants.QUADRATIC, Constants.DENSE,
+      Constants.ROBIN_HOOD, Constants.DOUBLE_HASHING };
+  private static final String[] MIX_NAMES = { "none", "fmix32", "fibonacci" };
+  private static final int[] MIXES = { Constants.NO_MIX, Constants.FMIX32, Constants.FIBONACCI };
+
+  /**
+   * Two-sided 99.9% quantiles of Student's t distribution for 1 to 30 degrees of freedom,
+   * used for the error of a score as in JMH.
+   */
+  private static final double[] T_999 = { 636.619, 31.599, 12.924, 8.610, 6.869, 5.959, 5.408, 5.041,
+      4.781, 4.587, 4.437, 4.318, 4.221, 4.140, 4.073, 4.015, 3.965, 3.922, 3.883, 3.850, 3.819, 3.792,
+      3.768, 3.745, 3.725, 3.707, 3.690, 3.674, 3.659, 3.646 };
+
+  /**
+   * Keeps results alive so that the work producing them cannot be optimized away.
+   */
+  private static volatile long sink;
+
+  /**
+   * One run of a benchmark, which times just the work being measured and returns the
+   * average number of nanoseconds per operation.
+   */
+  private interface Workload {
+    double run();
+  }
+
+  /**
+   * The data the benchmarks run on for one combination of parameters.
+   */
+  private static class Setup {
+    int capacity, bpc, mix;
+    CollisionPolicy policy;
+    double threshold;
+    int[] pixels;     // packed color of every pixel of every painting
+    Color[] colors;   // each distinct color once
+    long[] counts;    // and its count
+    ColorTable full;  // histogram of all the paintings
+    ColorTable other; // histogram of the first painting alone
+
+    ColorTable newTable() {
+      return new ColorTable(capacity, bpc, policy, threshold, mix);
+    }
+  }
+
+  private Image[] images;
+  private Map<Integer, int[]> pixelCache = new LinkedHashMap<>();
+  private Map<String, List<String>> params = new LinkedHashMap<>();
+  private List<String> filters = new ArrayList<>();
+  private int warmups = 2, iterations = 3;
+  private long iterationNanos = 500_000_000L;
+  private File jsonFile;
+  private StringBuilder json = new StringBuilder();
+  private Set<String> done = new HashSet<>(); // benchmarks and parameters already run
+
+  /**
+   * Reads the options described above.
+   *
+   * @throws RuntimeException if an option is not recognized or is missing its value
+   */
+  public Microbenchmark(String[] args) {
+    for (int i = 0; i < PARAMS.length; i++)
+      params.put(PARAMS[i], split(DEFAULTS[i]));
+    for (int i = 0; i < args.length; i++) {
+      String arg = args[i];
+      if (arg.startsWith("-") && i + 1 == args.length)
+        throw new RuntimeException("Missing value for option " + arg);
+      if (arg.equals("-p")) {
+        String[] pair = args[++i].split("=", 2);
+        if (pair.length != 2 || !params.containsKey(pair[0]))
+          throw new RuntimeException("Unknown parameter: " + args[i]);
+        params.put(pair[0], split(pair[1]));
+      }
+      else if (arg.equals("-wi"))
+        warmups = Integer.parseInt(args[++i]);
+      else if (arg.equals("-i"))
+        iterations = Integer.parseInt(args[++i]);
+      else if (arg.equals("-r"))
+        iterationNanos = Long.parseLong(args[++i]) * 1_000_000L;
+      else if (arg.equals("-rff"))
+        jsonFile = new File(args[++i]);
+      else if (arg.startsWith("-"))
+        throw new RuntimeException("Unknown option: " + arg);
+      else
+        filters.add(arg);
+    }
+    if (iterations < 1)
+      throw new RuntimeException("At least one measured iteration is needed");
+    File[] files = new File(Constants.IMAGE_DIR).listFiles();
+    images = new Image[files.length];
+    for (int i = 0; i < files.length; i++)
+      images[i] = new Image(files[i].getPath());
+  }
+
+  private static List<String> split(String values) {
+    List<String> list = new ArrayList<>();
+    for (String value : values.split(","))
+      if (!value.trim().isEmpty())
+        list.add(value.trim());
+    return list;
+  }
+
+  /**
+   * Runs every selected benchmark over its parameters and writes the results.
+   */
+  public void run() throws IOException {
+    System.out.println(String.format("%-17s %8s %4s %-14s %9s %-9s %12s %10s  %s", "benchmark", "capacity", "bpc",
+        "strategy", "threshold", "mix", "score", "error", "units"));
+    json.append("[");
+    for (String bpc : params.get("bpc")) {
+      if (!selected("quantize"))
+        break;
+      Setup setup = new Setup();
+      setup.bpc = Integer.parseInt(bpc);
+      run("quantize", setup, false, () -> quantize(setup));
+    }
+    boolean tables = false;
+    for (String name : new String[] { "put", "get", "increment", "rehash", "cosineSimilarity" })
+      tables |= selected(name);
+    for (String capacity : tables ? params.get("capacity") : new ArrayList<String>())
+      for (String bpc : params.get("bpc"))
+        for (String strategy : params.get("strategy"))
+          for (String threshold : params.get("threshold"))
+            for (String mix : params.get("mix")) {
+              Setup setup = setup(Integer.parseInt(bpc), Integer.parseInt(capacity), policy(strategy),
+                  Double.parseDouble(threshold), mix(mix));
+              if (setup == null)
+                continue;
+              run("put", setup, true, () -> put(setup));
+              run("get", setup, true, () -> get(setup));
+              run("increment", setup, true, () -> increment(setup));
+              run("rehash", setup, true, () -> rehash(setup));
+              run("cosineSimilarity", setup, true, () -> cosineSimilarity(setup));
+            }
+    json.append("\n]\n");
+    if (jsonFile != null) {
+      try (Writer out = new FileWriter(jsonFile)) {
+        out.write(json.toString());
+      }
+      System.out.println("Results written to " + jsonFile);
+    }
+  }
+
+  /**
+   * Returns true iff the benchmark with the given name passes the filters.
+   */
+  private boolean selected(String name) {
+    for (String filter : filters)
+      if (name.contains(filter))
+        return true;
+    return filters.isEmpty();
+  }
+
+  /**
+   * Returns the built-in policy whose name, with or without its spaces, or whose first
+   * word is the given name, so that "robinhood" and "double" both work on a command line.
+   *
+   * @throws RuntimeException if no policy has that name
+   */
+  private static CollisionPolicy policy(String name) {
+    for (int strategy : STRATEGIES) {
+      CollisionPolicy policy = CollisionPolicy.forStrategy(strategy);
+      String full = policy.getName();
+      if (full.equals(name) || full.replace(" ", "").equals(name) || full.split(" ")[0].equals(name))
+        return policy;
+    }
+    throw new RuntimeException("Unknown strategy: " + name);
+  }
+
+  /**
+   * Returns the Constants value of the mix with the given name.
+   *
+   * @throws RuntimeException if there is no mix with that name
+   */
+  private static int mix(String name) {
+    for (int i = 0; i < MIXES.length; i++)
+      if (MIX_NAMES[i].equals(name))
+        return MIXES[i];
+    throw new RuntimeException("Unknown mix: " + name);
+  }
+
+  private static String mixName(int mix) {
+    for (int i = 0; i < MIXES.length; i++)
+      if (MIXES[i] == mix)
+        return MIX_NAMES[i];
+    throw new RuntimeException("Unknown mix: " + mix);
+  }
+
+  /**
+   * Returns the data for one combination of parameters, or null if a ColorTable cannot
+   * be built with them.
+   */
+  private Setup setup(int bpc, int capacity, CollisionPolicy policy, double threshold, int mix) {
+    Setup setup = new Setup();
+    setup.bpc = bpc;
+    setup.capacity = capacity;
+    setup.policy = policy;
+    setup.threshold = threshold;
+    setup.mix = mix;
+    if (policy == CollisionPolicy.DENSE && (bpc > Constants.MAX_DENSE_BITS || mix != Constants.NO_MIX))
+      return null;
+    try {
+      setup.newTable();
+    }
+    catch (RuntimeException e) {
+      return null;
+    }
+    setup.pixels = pixelCache.get(bpc);
+    if (setup.pixels == null) {
+      long total = 0;
+      for (Image image : images)
+        total += (long) image.getWidth() * image.getHeight();
+      setup.pixels = new int[(int) total];
+      int n = 0;
+      for (Image image : images) {
+        int[] rgb = image.getRGB(0, image.getHeight(), null);
+        for (int i = 0; i < image.getWidth() * image.getHeight(); i++)
+          setup.pixels[n++] = Util.pack(rgb[i], bpc);
+      }
+      pixelCache.put(bpc, setup.pixels);
+    }
+    setup.full = setup.newTable();
+    for (int key : setup.pixels)
+      setup.full.incrementPacked(key);
+    setup.colors = new Color[setup.full.getSize()];
+    setup.counts = new long[setup.colors.length];
+    EntryIterator it = setup.full.entries();
+    for (int i = 0; it.hasNext(); i++) {
+      setup.counts[i] = it.next();
+      setup.colors[i] = Util.unpack(it.key(), bpc);
+    }
+    setup.other = Driver.vectorize(images[0], setup.newTable());
+    return setup;
+  }
+
+  /**
+   * Quantizes every painting; one operation is one pixel.
+   */
+  private double quantize(Setup setup) {
+    long start = System.nanoTime(), pixels = 0;
+    for (Image image : images) {
+      sink += image.quantize(setup.bpc).getRGB(0, 0);
+      pixels += (long) image.getWidth() * image.getHeight();
+    }
+    return (double) (System.nanoTime() - start) / pixels;
+  }
+
+  /**
+   * Puts every distinct color into a new table; one operation is one put().
+   */
+  private double put(Setup setup) {
+    ColorTable table = setup.newTable();
+    long start = System.nanoTime();
+    for (int i = 0; i < setup.colors.length; i++)
+      table.put(setup.colors[i], setup.counts[i]);
+    long elapsed = System.nanoTime() - start;
+    sink += table.getSize();
+    return (double) elapsed / setup.colors.length;
+  }
+
+  /**
+   * Looks up the color of every pixel in the full table; one operation is one getPacked().
+   */
+  private double get(Setup setup) {
+    long start = System.nanoTime(), sum = 0;
+    for (int key : setup.pixels)
+      sum += setup.full.getPacked(key);
+    long elapsed = System.nanoTime() - start;
+    sink += sum;
+    return (double) elapsed / setup.pixels.length;
+  }
+
+  /**
+   * Histograms every pixel into a new table; one operation is one incrementPacked().
+   */
+  private double increment(Setup setup) {
+    ColorTable table = setup.newTable();
+    long start = System.nanoTime();
+    for (int key : setup.pixels)
+      table.incrementPacked(key);
+    long elapsed = System.nanoTime() - start;
+    sink += table.getSize();
+    return (double) elapsed / setup.pixels.length;
+  }
+
+  /**
+   * Puts every distinct color into a new table and returns the time the table spent
+   * rehashing, as its stats record it, divided among the colors put. Dense tables never
+   * rehash and score zero.
+   */
+  private double rehash(Setup setup) {
+    ColorTable table = setup.newTable();
+    for (int i = 0; i < setup.colors.length; i++)
+      table.put(setup.colors[i], setup.counts[i]);
+    return table.getStats().getRehashMillis() * 1e6 / setup.colors.length;
+  }
+
+  /**
+   * Compares the full table with that of the first painting; one operation is one
+   * comparison.
+   */
+  private double cosineSimilarity(Setup setup) {
+    long start = System.nanoTime();
+    double sim = Util.cosineSimilarity(setup.full, setup.other);
+    long elapsed = System.nanoTime() - start;
+    sink += (long) (sim * 1000);
+    return elapsed;
+  }
+
+  /**
+   * Runs the warmup and measured iterations of one benchmark, unless it is filtered out,
+   * and records the result. Only the parameters the benchmark depends on are reported,
+   * and a benchmark is not run twice with the same ones.
+   */
+  private void run(String name, Setup setup, boolean tableParams, Workload workload) {
+    if (!selected(name))
+      return;
+    Map<String, String> shown = new LinkedHashMap<>();
+    if (tableParams && setup.policy != CollisionPolicy.DENSE)
+      shown.put("capacity", Integer.toString(setup.capacity));
+    shown.put("bpc", Integer.toString(setup.bpc));
+    if (tableParams) {
+      shown.put("strategy", setup.policy.getName());
+      // Dense tables have a fixed capacity, never rehash and do not hash.
+      if (setup.policy != CollisionPolicy.DENSE) {
+        shown.put("threshold", Double.toString(setup.threshold));
+        shown.put("mix", mixName(setup.mix));
+      }
+    }
+    if (!done.add(name + shown))
+      return;
+    for (int i = 0; i < warmups; i++)
+      iterate(workload);
+    double[] scores = new double[iterations];
+    for (int i = 0; i < iterations; i++)
+      scores[i] = iterate(workload);
+
+    double mean = 0, variance = 0;
+    for (double score : scores)
+      mean += score / scores.length;
+    for (double score : scores)
+      variance += (score - mean) * (score - mean) / Math.max(1, scores.length - 1);
+    int df = scores.length - 1;
+    double error = (df == 0) ? Double.NaN
+        : Math.sqrt(variance / scores.length) * ((df <= T_999.length) ? T_999[df - 1] : 3.291 + 10.6 / df);
+    String units = "ns/op";
+
+    System.out.println(String.format(Locale.ROOT, "%-17s %8s %4s %-14s %9s %-9s %12.3f %10.3f  %s", name,
+        value(shown, "capacity"), value(shown, "bpc"), value(shown, "strategy"), value(shown, "threshold"),
+        value(shown, "mix"), mean, error, units));
+
+    json.append(json.length() > 1 ? ",\n" : "\n");
+    json.append("  {\n    \"benchmark\" : \"Microbenchmark.").append(name).append("\",\n");
+    json.append("    \"mode\" : \"avgt\",\n");
+    json.append("    \"warmupIterations\" : ").append(warmups).append(",\n");
+    json.append(String.format(Locale.ROOT, "    \"warmupTime\" : \"%d ms\",\n", iterationNanos / 1_000_000));
+    json.append("    \"measurementIterations\" : ").append(iterations).append(",\n");
+    json.append(String.format(Locale.ROOT, "    \"measurementTime\" : \"%d ms\",\n", iterationNanos / 1_000_000));
+    json.append("    \"params\" : {");
+    String separator = "\n";
+    for (Map.Entry<String, String> param : shown.entrySet()) {
+      json.append(separator).append("      \"").append(param.getKey()).append("\" : \"").append(param.getValue()).append("\"");
+      separator = ",\n";
+    }
+    json.append("\n    },\n    \"primaryMetric\" : {\n");
+    json.append(String.format(Locale.ROOT, "      \"score\" : %s,\n", number(mean)));
+    json.append(String.format(Locale.ROOT, "      \"scoreError\" : %s,\n", number(error)));
+    json.append(String.format(Locale.ROOT, "      \"scoreConfidence\" : [ %s, %s ],\n", number(mean - error), number(mean + error)));
+    json.append("      \"scoreUnit\" : \"").append(units).append("\",\n");
+    json.append("      \"rawData\" : [ [ ");
+    for (int i = 0; i < scores.length; i++)
+      json.append(i == 0 ? "" : ", ").append(number(scores[i]));
+    json.append(" ] ]\n    }\n  }");
+  }
+
+  private static String value(Map<String, String> shown, String name) {
+    return shown.containsKey(name) ? shown.get(name) : "-";
+  }
+
+  /**
+   * Formats a number for JSON, which has no NaN, so an undefined error is written as null.
+   */
+  private static String number(double x) {
+    return Double.isNaN(x) ? "null" : String.format(Locale.ROOT, "%.6f", x);
+  }
+
+  /**
+   * Repeats the workload for at least the iteration time and returns the average of its
+   * results.
+   */
+  private double iterate(Workload workload) {
+    long end = System.nanoTime() + iterationNanos;
+    double sum = 0;
+    int runs = 0;
+    do {
+      sum += workload.run();
+      runs++;
+    } while (System.nanoTime() < end);
+    return sum / runs;
+  }
+
+  /**
+   * Runs the benchmarks selected by the options described above.
+   */
+  public static void main(String[] args) throws IOException {
+    new Microbenchmark(args).run();
+  }
+}
@@ -1,5 +1,9 @@
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
 /**
- * Just a few specific paintings (good for testing purposes).
+ * Just a few specific paintings (good for testing purposes). Each image is decoded the
+ * first time it is asked for, not when the enum is loaded.
  */
 
 public enum Painting {
@@ -8,18 +12,41 @@ public enum Painting {
   STARRY_NIGHT("vangogh.jpg"),
   BLUE_DANCERS("degas.jpg");
   
-  private Image image;
+  private String filename;
+  private FutureTask<Image> image;
 
   private Painting(String filename) {
-    this.image = new Image(Constants.IMAGE_DIR + "/" + filename);
+    this.filename = filename;
   }
   
   /**
-   * Returns the Image object associated with this painting.
+   * Returns the not necessarily started task that decodes this painting's image. The 
+   * task runs at most once, whoever starts it.
    */
-  public Image get() {
+  private synchronized FutureTask<Image> task() {
+    if (image == null)
+      image = new FutureTask<>(() -> Image.read(Constants.IMAGE_DIR + "/" + filename));
     return image;
   }
+  
+  /**
+   * Starts decoding this painting's image in the background, unless that has already
+   * begun, and returns a Future for it.
+   */
+  public Future<Image> load() {
+    FutureTask<Image> task = task();
+    if (!task.isDone())
+      ImageLoader.execute(task);
+    return task;
+  }
+  
+  /**
+   * Returns the Image object associated with this painting, decoding it now if no one 
+   * has yet.
+   */
+  public Image get() {
+    FutureTask<Image> task = task();
+    task.run(); // does nothing if the task has already run or is running elsewhere
+    return ImageLoader.await(task);
+  }
 }
-
-
@@ -0,0 +1,105 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A PalettePyramid holds the histogram of one image at every number of bits per channel
+ * from 1 up to that of the table it is built from, usually 8. The image is read once,
+ * at the finest level, and each coarser level is folded from the one above it with
+ * ColorTable.fold(), which only visits the keys of the finer table. A level has at most
+ * as many keys as the level above, so the whole pyramid costs less than two passes over
+ * the finest table, against one pass over the pixels per level when vectorizing at each
+ * level separately.
+ *
+ * Coarse levels are small and quick to compare, which nearest() uses to narrow a search
+ * down to a few candidates before comparing them at the finest level.
+ */
+
+public class PalettePyramid {
+  private ColorTable[] levels; // levels[b] is the histogram at b bits per channel
+
+  /**
+   * Constructs the pyramid of the given table, which becomes its finest level.
+   */
+  public PalettePyramid(ColorTable table) {
+    int top = table.getBitsPerChannel();
+    levels = new ColorTable[top + 1];
+    levels[top] = table;
+    for (int b = top - 1; b >= 1; b--)
+      levels[b] = levels[b + 1].fold(b);
+  }
+
+  /**
+   * Constructs the pyramid of the image, read once at 8 bits per channel.
+   */
+  public PalettePyramid(Image image) {
+    this(Driver.vectorize(image, 8));
+  }
+
+  /**
+   * Returns the number of bits per channel of the finest level.
+   */
+  public int getBitsPerChannel() {
+    return levels.length - 1;
+  }
+
+  /**
+   * Returns the histogram at the given number of bits per channel.
+   *
+   * @throws RuntimeException if bitsPerChannel is not in the range [1..getBitsPerChannel()]
+   */
+  public ColorTable get(int bitsPerChannel) {
+    if (bitsPerChannel < 1 || bitsPerChannel >= levels.length)
+      throw new RuntimeException("Bits per channel not in range 1..." + getBitsPerChannel());
+    return levels[bitsPerChannel];
+  }
+
+  /**
+   * Returns the cosine similarity of this pyramid and other at the given number of bits
+   * per channel.
+   */
+  public double similarity(PalettePyramid other, int bitsPerChannel) {
+    return Util.cosineSimilarity(get(bitsPerChannel), other.get(bitsPerChannel));
+  }
+
+  /**
+   * Returns the indices of the (at most) k pyramids in corpus most similar to query at
+   * the finest level they share, most similar first. Every pyramid is first compared at
+   * Constants.COARSE_BITS bits per channel, and only the given number of candidates that
+   * come out best there are compared at the finest level. Coarse similarity does not
+   * bound fine similarity, so with fewer candidates than the corpus a true match can be
+   * missed; with at least as many, the answer is that of comparing everything exactly.
+   */
+  public static List<Integer> nearest(PalettePyramid query, List<PalettePyramid> corpus, int k, int candidates) {
+    int n = corpus.size();
+    List<Integer> order = new ArrayList<>();
+    double[] sim = new double[n];
+    for (int i = 0; i < n; i++) {
+      order.add(i);
+      PalettePyramid other = corpus.get(i);
+      int coarse = Math.min(Constants.COARSE_BITS, Math.min(query.getBitsPerChannel(), other.getBitsPerChannel()));
+      sim[i] = query.similarity(other, coarse);
+    }
+    Collections.sort(order, (a, b) -> Double.compare(sim[b], sim[a]));
+    order = new ArrayList<>(order.subList(0, Math.min(n, Math.max(k, candidates))));
+    for (int i : order) {
+      PalettePyramid other = corpus.get(i);
+      sim[i] = query.similarity(other, Math.min(query.getBitsPerChannel(), other.getBitsPerChannel()));
+    }
+    Collections.sort(order, (a, b) -> Double.compare(sim[b], sim[a]));
+    return order.subList(0, Math.min(k, order.size()));
+  }
+
+  /**
+   * Simple testing.
+   */
+  public static void main(String[] args) {
+    List<PalettePyramid> corpus = new ArrayList<>();
+    for (Painting painting : Painting.values())
+      corpus.add(new PalettePyramid(painting.get()));
+    PalettePyramid mona = corpus.get(Painting.MONA_LISA.ordinal());
+    for (int b = 1; b <= 8; b++)
+      System.out.println(String.format("%d bpc: %6d colors", b, mona.get(b).getSize()));
+    System.out.println("nearest: " + nearest(mona, corpus, 3, 5));  // Expected: Mona Lisa first
+  }
+}
@@ -1,4 +1,20 @@
 import java.awt.Color;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
 
 import static org.junit.Assert.assertEquals;
 
@@ -197,6 +213,38 @@ public class Testing {
     assertEquals(true, table.getLoadFactor() < 0.1);
   }
 
+  @Test(timeout = 30000)
+  public void testManyDistinctColors() {
+    table = new ColorTable(1, 8, Constants.QUADRATIC, 0.49);
+    for (int rgb = 0; rgb < 1000000; rgb++)
+      table.put(new Color(rgb), rgb + 1);
+    assertEquals(1000000, table.getSize());
+    assertEquals(true, table.getLoadFactor() < 0.49);
+    assertEquals(1, table.get(new Color(0)));
+    assertEquals(1000000, table.get(new Color(999999)));
+  }
+
+  @Test
+  public void testDense() {
+    table = new ColorTable(1, 2, Constants.DENSE, 1.0);
+    assertEquals(64, table.getCapacity());
+    table.put(Color.BLACK, 5);
+    table.increment(Color.WHITE);
+    table.increment(Color.WHITE);
+    assertEquals(5, table.getCountAt(0));
+    assertEquals(2, table.getCountAt(63));
+    for (int rgb = 0; rgb < 0x1000000; rgb += 0x10101)
+      table.increment(new Color(rgb));
+    assertEquals(64, table.getCapacity());
+    assertEquals(4, table.getSize());
+    assertEquals(5 + 64, table.get(Color.BLACK));
+    
+    ColorTable hashed = new ColorTable(1, 2, Constants.QUADRATIC, 0.49);
+    hashed.put(Color.BLACK, 69);
+    hashed.put(Color.WHITE, 66);
+    assertEquals(Util.cosineSimilarity(hashed, table), Util.cosineSimilarity(table, hashed), 0);
+  }
+
   @Test
   public void testIterator() {
     table = new ColorTable(13, 2, Constants.LINEAR, 0.49);
@@ -223,6 +271,630 @@ public class Testing {
     }
   }
   
+  @Test
+  public void testEntries() {
+    table = new ColorTable(13, 2, Constants.QUADRATIC, 0.49);
+    for (int i = 0; i < 20 * 17; i += 17)
+      table.put(new Color(i * i),  i);
+    EntryIterator it = table.entries();
+    int n = 0;
+    while (it.hasNext()) {
+      long count = it.next();
+      assertEquals(count, table.getPacked(it.key()));
+      n++;
+    }
+    assertEquals(table.getSize(), n);
+    assertEquals(false, new ColorTable(3, 2, Constants.LINEAR, 0.9).entries().hasNext());
+  }
+
+  @Test
+  public void testCosineSimilarityDifferentCapacities() {
+    ColorTable small = new ColorTable(3, 4, Constants.LINEAR, 0.9);
+    ColorTable big = new ColorTable(1000, 4, Constants.QUADRATIC, 0.49);
+    small.put(Color.RED, 3);
+    small.put(Color.BLUE, 4);
+    big.put(Color.BLUE, 4);
+    big.put(Color.RED, 3);
+    assertEquals(1.0, Util.cosineSimilarity(small, big), 1e-12);
+    big.put(Color.GREEN, 12);
+    assertEquals(25.0 / (5 * 13), Util.cosineSimilarity(small, big), 1e-12);
+  }
+
+  @Test
+  public void testPackedRGB() {
+    for (int rgb = 0; rgb < 0x1000000; rgb += 0x10203)
+      for (int bitsPerChannel = 1; bitsPerChannel <= 8; bitsPerChannel++)
+        assertEquals(Util.pack(new Color(rgb), bitsPerChannel), 
+            Util.pack(0xFF000000 | rgb, bitsPerChannel));
+  }
+
+  @Test
+  public void testBulkVectorize() {
+    Image image = Painting.STARRY_NIGHT.get();
+    ColorTable bulk = Driver.vectorize(image, 7);
+    ColorTable slow = new ColorTable(1, 7, Constants.QUADRATIC, 0.49);
+    for (int x = 0; x < image.getWidth(); x++)
+      for (int y = 0; y < image.getHeight(); y++)
+        slow.increment(image.getColor(x, y));
+    assertEquals(slow.getSize(), bulk.getSize());
+    EntryIterator it = slow.entries();
+    while (it.hasNext())
+      assertEquals(it.next(), bulk.getPacked(it.key()));
+  }
+
+  @Test
+  public void testMerge() {
+    ColorTable a = new ColorTable(3, 4, Constants.LINEAR, 0.9);
+    ColorTable b = new ColorTable(13, 4, Constants.QUADRATIC, 0.49);
+    a.put(Color.RED, 2);
+    a.put(Color.BLUE, 3);
+    b.put(Color.BLUE, 4);
+    b.put(Color.GREEN, 5);
+    a.merge(b);
+    assertEquals(3, a.getSize());
+    assertEquals(2, a.get(Color.RED));
+    assertEquals(7, a.get(Color.BLUE));
+    assertEquals(5, a.get(Color.GREEN));
+    assertEquals(4, b.get(Color.BLUE));
+  }
+
+  @Test
+  public void testParallelVectorize() {
+    Image image = new Image(Painting.BLUE_DANCERS.get(), 2);
+    ForkJoinPool pool = new ForkJoinPool(4);
+    for (int bitsPerChannel = 5; bitsPerChannel <= 8; bitsPerChannel += 3) {
+      ColorTable sequential = Driver.vectorize(image, bitsPerChannel);
+      ColorTable parallel = Driver.vectorizeParallel(image, bitsPerChannel, pool);
+      assertEquals(sequential.getSize(), parallel.getSize());
+      EntryIterator it = sequential.entries();
+      while (it.hasNext())
+        assertEquals(it.next(), parallel.getPacked(it.key()));
+      ColorTable other = Driver.vectorize(Painting.STARRY_NIGHT.get(), bitsPerChannel);
+      assertEquals(Util.cosineSimilarity(sequential, other), Util.cosineSimilarity(parallel, other), 0);
+    }
+    
+    // Tables filled on different threads at once must not lose any of the collisions
+    // they add to the count for all tables.
+    int before = ColorTable.getNumCollisions();
+    List<ForkJoinTask<ColorTable>> futures = new ArrayList<>();
+    for (int t = 0; t < 8; t++) {
+      int seed = t;
+      futures.add(pool.submit(() -> {
+        ColorTable table = new ColorTable(3, 8, Constants.LINEAR, 0.9);
+        Random random = new Random(seed);
+        for (int i = 0; i < 20000; i++)
+          table.increment(new Color(random.nextInt(1 << 24)));
+        return table;
+      }));
+    }
+    long collisions = 0;
+    for (ForkJoinTask<ColorTable> future : futures)
+      collisions += future.join().getStats().getCollisions();
+    assertEquals(collisions, ColorTable.getNumCollisions() - before);
+    pool.shutdown();
+  }
+
+  @Test
+  public void testQuantizeAndXray() {
+    Image image = Painting.CHRISTINAS_WORLD.get();
+    for (int bitsPerChannel = 1; bitsPerChannel <= 8; bitsPerChannel++) {
+      Image quantized = image.quantize(bitsPerChannel);
+      for (int x = 0; x < image.getWidth(); x += 7)
+        for (int y = 0; y < image.getHeight(); y += 5)
+          assertEquals(Util.unpack(Util.pack(image.getColor(x, y), bitsPerChannel), bitsPerChannel),
+              quantized.getColor(x, y));
+    }
+    Image quantized = image.quantize(3);
+    Color color = quantized.getColor(10, 10);
+    Image xray = quantized.xray(color);
+    for (int x = 0; x < image.getWidth(); x += 7)
+      for (int y = 0; y < image.getHeight(); y += 5)
+        assertEquals(quantized.getColor(x, y).equals(color) ? Color.WHITE : Color.BLACK, 
+            xray.getColor(x, y));
+  }
+
+  @Test
+  public void testCorpusIndex() {
+    Random rand = new Random(343);
+    Painting[] paintings = Painting.values();
+    ColorTable[] base = new ColorTable[paintings.length];
+    for (int i = 0; i < base.length; i++)
+      base[i] = Driver.vectorize(paintings[i].get(), 3);
+    // Build a corpus of noisy copies of the paintings.
+    CorpusIndex index = new CorpusIndex(3);
+    List<ColorTable> corpus = new ArrayList<>();
+    for (int doc = 0; doc < 500; doc++) {
+      ColorTable table = new ColorTable(1, 3, Constants.DENSE, 1.0);
+      EntryIterator it = base[doc % base.length].entries();
+      while (it.hasNext()) {
+        long count = it.next();
+        if (rand.nextInt(10) > 0)
+          table.put(Util.unpack(it.key(), 3), 1 + (long) (count * rand.nextDouble()));
+      }
+      corpus.add(table);
+      index.add("doc" + doc, table);
+    }
+    for (int q = 0; q < base.length; q++) {
+      List<CorpusIndex.Match> matches = index.query(base[q], 5);
+      assertEquals(5, matches.size());
+      // Compare against a brute-force scan.
+      double[] sims = new double[corpus.size()];
+      for (int doc = 0; doc < sims.length; doc++)
+        sims[doc] = Util.cosineSimilarity(base[q], corpus.get(doc));
+      Arrays.sort(sims);
+      for (int i = 0; i < 5; i++)
+        assertEquals(sims[sims.length - 1 - i], matches.get(i).getSimilarity(), 1e-9);
+    }
+
+    // Counts past 2^31, as in a huge image at a few bits per channel, are kept whole.
+    ColorTable huge = new ColorTable(1, 1, Constants.DENSE, 1.0);
+    huge.put(Color.BLACK, 3L << 32);
+    huge.put(Color.WHITE, 1L << 31);
+    ColorTable small = new ColorTable(1, 1, Constants.DENSE, 1.0);
+    small.put(Color.BLACK, 1);
+    small.put(Color.WHITE, 1);
+    index = new CorpusIndex(1);
+    index.add("huge", huge);
+    double expected = 7 / Math.sqrt(2 * 37); // (1, 1) against (6, 1) scaled by 2^31
+    assertEquals(expected, Util.cosineSimilarity(small, huge), 1e-12);
+    assertEquals(expected, index.query(small, 1).get(0).getSimilarity(), 1e-12);
+  }
+
+  /**
+   * Checks that two tables have the same capacity and size and hold the same count in
+   * every slot.
+   */
+  private static void assertSameSlots(ColorTable expected, ColorTable actual) {
+    assertEquals(expected.getCapacity(), actual.getCapacity());
+    assertEquals(expected.getSize(), actual.getSize());
+    for (int i = 0; i < expected.getCapacity(); i++)
+      assertEquals(expected.getCountAt(i), actual.getCountAt(i));
+  }
+
+  @Test
+  public void testSaveAndLoad() throws IOException {
+    File dir = Files.createTempDirectory("histograms").toFile();
+    File file = new File(dir, "starry.ct");
+    ColorTable saved = Driver.vectorize(Painting.STARRY_NIGHT.get(), 7);
+    saved.save(file);
+    ColorTable loaded = ColorTable.load(file);
+    assertSameSlots(saved, loaded);
+    loaded.increment(Color.BLACK);
+    assertEquals(saved.get(Color.BLACK) + 1, loaded.get(Color.BLACK));
+
+    // A file cut off inside its header is refused before any field is read.
+    byte[] bytes = Files.readAllBytes(file.toPath());
+    File cut = new File(dir, "cut.ct");
+    for (int length = 0; length < 40; length++) {
+      Files.write(cut.toPath(), Arrays.copyOf(bytes, length));
+      try {
+        ColorTable.load(cut);
+        assertEquals("a table cut to " + length + " bytes", "no exception");
+      }
+      catch (IOException e) {
+      }
+    }
+    // A header whose size disagrees with the keys saved is refused too. The size is the
+    // sixth int of the header, so its lowest byte is byte 23.
+    byte[] wrong = bytes.clone();
+    wrong[23]++;
+    Files.write(cut.toPath(), wrong);
+    try {
+      ColorTable.load(cut);
+      assertEquals("a table with the wrong size", "no exception");
+    }
+    catch (IOException e) {
+    }
+    cut.delete();
+
+    // An old (CTB1) double hashing table saved with a composite capacity still loads,
+    // into a table of the rounded capacity.
+    File old = new File(dir, "old.ct");
+    try (DataOutputStream out = new DataOutputStream(new FileOutputStream(old))) {
+      out.writeInt(0x43544231);
+      out.writeInt(8);
+      out.writeInt(Constants.DOUBLE_HASHING);
+      out.writeInt(10);
+      out.writeInt(2);
+      out.writeDouble(0.9);
+      for (int i = 0; i < 10; i++)
+        out.writeInt(i == 3 ? 13 : i == 4 ? 23 : -1);
+      for (int i = 0; i < 10; i++)
+        out.writeLong(i == 3 ? 5 : i == 4 ? 6 : 0);
+    }
+    loaded = ColorTable.load(old);
+    assertEquals(11, loaded.getCapacity());
+    assertEquals(2, loaded.getSize());
+    assertEquals(5, loaded.getPacked(13));
+    assertEquals(6, loaded.getPacked(23));
+    old.delete();
+
+    // The store decodes the image once, and then serves the saved table.
+    HistogramStore store = new HistogramStore(dir);
+    File image = new File(Constants.IMAGE_DIR, "vangogh.jpg");
+    assertEquals(false, store.isCached(image, 7));
+    assertSameSlots(saved, store.vectorize(image, 7));
+    assertEquals(true, store.isCached(image, 7));
+    assertSameSlots(saved, store.vectorize(image, 7));
+    for (File f : dir.listFiles())
+      f.delete();
+    dir.delete();
+  }
+
+  @Test
+  public void testImageLoader() {
+    List<String> files = new ArrayList<>();
+    for (String name : new String[] { "kahlo", "homer", "renoir" })
+      files.add(Constants.IMAGE_DIR + "/" + name + ".jpg");
+    List<Future<Image>> images = ImageLoader.loadAll(files);
+    assertEquals("kahlo", ImageLoader.await(images.get(0)).getName());
+    assertEquals("homer", ImageLoader.await(images.get(1)).getName());
+    assertEquals("renoir", ImageLoader.await(images.get(2)).getName());
+    // A painting is decoded once, however it is asked for.
+    Future<Image> image = Painting.CHRISTINAS_WORLD.load();
+    assertEquals(true, Painting.CHRISTINAS_WORLD.get() == ImageLoader.await(image));
+    assertEquals(true, Painting.CHRISTINAS_WORLD.get() == Painting.CHRISTINAS_WORLD.get());
+    // A file that cannot be read fails its Future rather than exiting.
+    try {
+      ImageLoader.await(ImageLoader.load(Constants.IMAGE_DIR + "/missing.jpg"));
+      assertEquals("a missing image", "no exception");
+    }
+    catch (RuntimeException e) {
+      assertEquals(true, e.getCause() instanceof IOException);
+    }
+  }
+
+  @Test
+  public void testStats() {
+    // 0, 7 and 14 share home slot 0, so each put meets one more collision. Reads are
+    // not counted.
+    table = new ColorTable(7, 8, Constants.LINEAR, 0.9);
+    table.put(new Color(0), 1);
+    table.put(new Color(7), 1);
+    table.put(new Color(14), 1);
+    assertEquals(1, table.get(new Color(14)));
+    ColorTableStats stats = table.getStats();
+    assertEquals(3, stats.getLookups());
+    assertEquals(3, stats.getCollisions());
+    assertEquals(2, stats.getMaxProbe());
+    assertEquals(1.0, stats.getAverageProbe(), 1e-9);
+    assertEquals("[1, 1, 1]", Arrays.toString(Arrays.copyOf(stats.getProbeLengths(), 3)));
+    table.increment(new Color(14));
+    assertEquals(4, table.getStats().getLookups());
+    assertEquals(5, table.getStats().getCollisions());
+    assertEquals(0, stats.getRehashCount());
+    table.resetStats();
+    assertEquals(0, table.getStats().getLookups());
+
+    // The same rehashes as testLowLoadFactor.
+    table = new ColorTable(3, 4, Constants.LINEAR, 0.1);
+    table.put(Color.BLACK, 5);
+    table.put(Color.WHITE, 5);
+    stats = table.getStats();
+    assertEquals(43, stats.getCapacity());
+    // Black fills 3 slots past the threshold, and then 7, so the table grows to 19; 
+    // white then sets off a third rehash, to 43.
+    assertEquals(3, stats.getRehashCount());
+    assertEquals(true, stats.getRehashMillis() > 0);
+    assertEquals(1.0 / 3, stats.getRehashLoadFactors()[0], 1e-9);
+    assertEquals(1.0 / 7, stats.getRehashLoadFactors()[1], 1e-9);
+    assertEquals(2.0 / 19, stats.getRehashLoadFactors()[2], 1e-9);
+    // Moving keys into the new arrays does not count as putting them.
+    assertEquals(2, stats.getLookups());
+    // A snapshot does not change with the table.
+    table.put(Color.RED, 5);
+    assertEquals(2, stats.getSize());
+  }
+
+  @Test
+  public void testCollisionPolicies() {
+    Random rand = new Random(343);
+    int[] colors = new int[20000];
+    for (int i = 0; i < colors.length; i++)
+      colors[i] = rand.nextInt(1 << 24);
+    int[] strategies = { Constants.LINEAR, Constants.QUADRATIC, Constants.ROBIN_HOOD, Constants.DOUBLE_HASHING };
+    double[] thresholds = { 0.9, 0.49, 0.95, 0.9 };
+    ColorTable expected = new ColorTable(1, 8, Constants.QUADRATIC, 0.25);
+    for (int rgb : colors)
+      expected.increment(new Color(rgb));
+    for (int s = 0; s < strategies.length; s++) {
+      table = new ColorTable(1, 8, strategies[s], thresholds[s]);
+      assertEquals(strategies[s], table.getPolicy().getStrategy());
+      for (int rgb : colors)
+        table.increment(new Color(rgb));
+      assertEquals(expected.getSize(), table.getSize());
+      for (int rgb : colors)
+        assertEquals(expected.get(new Color(rgb)), table.get(new Color(rgb)));
+
+      // Remove the first thousand colors; the rest must still be found. Quadratic and
+      // double hashing rebuild the table on every removal, so keep it to a thousand.
+      Set<Integer> removed = new HashSet<>();
+      for (int i = 0; i < 1000; i++) {
+        long count = removed.add(colors[i]) ? expected.get(new Color(colors[i])) : 0;
+        assertEquals(count, table.remove(new Color(colors[i])));
+      }
+      assertEquals(expected.getSize() - removed.size(), table.getSize());
+      for (int rgb : colors)
+        assertEquals(removed.contains(rgb) ? 0 : expected.get(new Color(rgb)), table.get(new Color(rgb)));
+    }
+    // Robin Hood keeps the longest probe far shorter than linear probing does.
+    table = new ColorTable(1, 8, Constants.LINEAR, 0.9);
+    ColorTable robinHood = new ColorTable(1, 8, Constants.ROBIN_HOOD, 0.9);
+    for (int rgb : colors) {
+      table.increment(new Color(rgb));
+      robinHood.increment(new Color(rgb));
+    }
+    assertEquals(true, robinHood.getStats().getMaxProbe() < table.getStats().getMaxProbe());
+  }
+
+  @Test
+  public void testAgainstHashMap() {
+    // A composite capacity is rounded up to a prime of the form 4j + 3 for double
+    // hashing, and kept as given otherwise.
+    assertEquals(11, new ColorTable(10, 2, Constants.DOUBLE_HASHING, 0.9).getCapacity());
+    assertEquals(1019, new ColorTable(1000, 2, Constants.DOUBLE_HASHING, 0.9).getCapacity());
+    assertEquals(1000, new ColorTable(1000, 2, Constants.LINEAR, 0.9).getCapacity());
+    assertEquals(10, new ColorTable(10, 2, Constants.QUADRATIC, 0.49).getCapacity());
+    int[] strategies = { Constants.LINEAR, Constants.QUADRATIC, Constants.DENSE, Constants.ROBIN_HOOD, 
+        Constants.DOUBLE_HASHING };
+    double[] thresholds = { 0.9, 0.49, 1.0, 0.95, 0.9 };
+    int[] mixes = { Constants.NO_MIX, Constants.FMIX32, Constants.FIBONACCI };
+    Random rand = new Random(343);
+    for (int s = 0; s < strategies.length; s++)
+      for (int mix : mixes)
+        for (int capacity : new int[] { 1, 10, 1000 })
+          for (int bitsPerChannel : new int[] { 2, 5 }) {
+            ColorTable table = new ColorTable(capacity, bitsPerChannel, strategies[s], thresholds[s], mix);
+            Map<Integer, Long> oracle = new HashMap<>();
+            for (int op = 0; op < 2000; op++) {
+              Color color = new Color(rand.nextInt(1 << 24));
+              int key = Util.pack(color, bitsPerChannel);
+              int what = rand.nextInt(10);
+              if (what < 6) {
+                table.increment(color);
+                oracle.merge(key, 1L, Long::sum);
+              }
+              else if (what < 8) {
+                long count = rand.nextInt(5);
+                table.put(color, count);
+                if (count > 0)
+                  oracle.put(key, count);
+              }
+              else {
+                Long count = oracle.remove(key);
+                assertEquals(count == null ? 0 : (long) count, table.remove(color));
+              }
+              assertEquals(oracle.size(), table.getSize());
+            }
+            for (Map.Entry<Integer, Long> entry : oracle.entrySet())
+              assertEquals((long) entry.getValue(), table.getPacked(entry.getKey()));
+          }
+  }
+
+  @Test
+  public void testHashMix() throws IOException {
+    assertEquals(0, Util.fmix32(0));
+    assertEquals(0x514E28B7, Util.fmix32(1));
+    assertEquals(0x9E3779B9, Util.fibonacci(1));
+    Random rand = new Random(343);
+    int[] colors = new int[5000];
+    for (int i = 0; i < colors.length; i++)
+      colors[i] = rand.nextInt(1 << 24);
+    ColorTable expected = new ColorTable(1, 8, Constants.QUADRATIC, 0.25);
+    for (int rgb : colors)
+      expected.increment(new Color(rgb));
+    int[] strategies = { Constants.LINEAR, Constants.QUADRATIC, Constants.ROBIN_HOOD, Constants.DOUBLE_HASHING };
+    for (int mix : new int[] { Constants.FMIX32, Constants.FIBONACCI }) {
+      for (int strategy : strategies) {
+        table = new ColorTable(5, 8, strategy, 0.49, mix);
+        assertEquals(8, table.getCapacity());
+        for (int rgb : colors)
+          table.increment(new Color(rgb));
+        assertEquals(expected.getSize(), table.getSize());
+        assertEquals(16384, table.getCapacity());
+        for (int rgb : colors)
+          assertEquals(expected.get(new Color(rgb)), table.get(new Color(rgb)));
+        for (int i = 0; i < 100; i++)
+          table.remove(new Color(colors[i]));
+        assertEquals(0, table.get(new Color(colors[0])));
+        assertEquals(expected.get(new Color(colors[100])), table.get(new Color(colors[100])));
+      }
+    }
+    // The mix is saved along with the table.
+    File file = File.createTempFile("mixed", ".ct");
+    table.save(file);
+    ColorTable loaded = ColorTable.load(file);
+    file.delete();
+    assertEquals(Constants.FIBONACCI, loaded.getHashMix());
+    assertSameSlots(table, loaded);
+    assertEquals(table.get(new Color(colors[100])), loaded.get(new Color(colors[100])));
+
+    // Mixing breaks up the runs of similar colors in the paintings.
+    long plainProbes = 0, mixedProbes = 0, plainLookups = 0, mixedLookups = 0;
+    for (Painting painting : Painting.values()) {
+      ColorTableStats plain = Driver.vectorize(painting.get(), new ColorTable(1, 8, Constants.LINEAR, 0.75)).getStats();
+      ColorTableStats mixed = Driver.vectorize(painting.get(), 
+          new ColorTable(1, 8, Constants.LINEAR, 0.75, Constants.FIBONACCI)).getStats();
+      plainProbes += plain.getCollisions();
+      plainLookups += plain.getLookups();
+      mixedProbes += mixed.getCollisions();
+      mixedLookups += mixed.getLookups();
+    }
+    assertEquals(true, (double) mixedProbes / mixedLookups < (double) plainProbes / plainLookups);
+  }
+
+  @Test(timeout = 60000)
+  public void testConcurrentColorTable() throws InterruptedException {
+    // Each thread adds the same colors in its own order, starting from the smallest
+    // table so that the stripes grow while the threads are at work.
+    int numThreads = 4;
+    int[] colors = new int[100000];
+    Random rand = new Random(343);
+    for (int i = 0; i < colors.length; i++)
+      colors[i] = rand.nextInt(1 << 16) * rand.nextInt(256);
+    ConcurrentColorTable shared = new ConcurrentColorTable(1, 8, 0.5);
+    ColorTable expected = new ColorTable(1, 8, Constants.QUADRATIC, 0.49);
+    for (int rgb : colors)
+      expected.increment(new Color(rgb));
+    int hot = Util.pack(colors[0], 8);
+    boolean[] decreased = new boolean[1];
+    Thread[] threads = new Thread[numThreads + 1];
+    for (int t = 0; t < numThreads; t++) {
+      int offset = t * colors.length / numThreads;
+      threads[t] = new Thread(() -> {
+        for (int i = 0; i < colors.length; i++)
+          shared.incrementPacked(Util.pack(colors[(i + offset) % colors.length], 8));
+      });
+    }
+    // Meanwhile, a reader checks that a count never goes down.
+    threads[numThreads] = new Thread(() -> {
+      long last = 0;
+      while (last < numThreads * expected.getPacked(hot)) {
+        long count = shared.getPacked(hot);
+        decreased[0] |= (count < last);
+        last = count;
+      }
+    });
+    for (Thread thread : threads)
+      thread.start();
+    for (Thread thread : threads)
+      thread.join();
+    assertEquals(false, decreased[0]);
+    assertEquals(expected.getSize(), shared.getSize());
+    EntryIterator it = expected.entries();
+    while (it.hasNext()) {
+      long count = it.next();
+      assertEquals(numThreads * count, shared.getPacked(it.key()));
+    }
+    assertEquals(1.0, Util.cosineSimilarity(expected, shared.toColorTable()), 1e-12);
+
+    // Bands of an image counted straight into one table.
+    ColorTable sequential = Driver.vectorize(Painting.MONA_LISA.get(), 8);
+    ForkJoinPool pool = new ForkJoinPool(4);
+    ConcurrentColorTable concurrent = Driver.vectorizeConcurrent(Painting.MONA_LISA.get(), 
+        new ConcurrentColorTable(1, 8, 0.5), pool);
+    pool.shutdown();
+    assertEquals(sequential.getSize(), concurrent.getSize());
+    it = sequential.entries();
+    while (it.hasNext())
+      assertEquals(it.next(), concurrent.getPacked(it.key()));
+  }
+
+  @Test
+  public void testVectorizeTiled() throws IOException {
+    for (Painting painting : new Painting[] { Painting.MONA_LISA, Painting.BLUE_DANCERS }) {
+      File file = new File(Constants.IMAGE_DIR, painting.get().getName() + ".jpg");
+      ColorTable expected = Driver.vectorize(painting.get(), 8);
+      // Tiles that don't divide the image evenly, whole rows, the whole image, and
+      // whatever suits the format.
+      int[][] tiles = { { 97, 61 }, { painting.get().getWidth(), 40 }, { Constants.TILE_SIZE, Constants.TILE_SIZE }, 
+          { 0, 0 } };
+      for (int[] tile : tiles) {
+        ColorTable tiled = Driver.vectorizeTiled(file, Driver.newTable(8), tile[0], tile[1]);
+        assertEquals(expected.getSize(), tiled.getSize());
+        EntryIterator it = expected.entries();
+        while (it.hasNext())
+          assertEquals(it.next(), tiled.getPacked(it.key()));
+      }
+    }
+    assertSameSlots(Driver.vectorize(Painting.STARRY_NIGHT.get(), 5), 
+        Driver.vectorize(new File(Constants.IMAGE_DIR, "vangogh.jpg"), 5));
+  }
+
+  @Test
+  public void testSampling() {
+    Image image = Painting.STARRY_NIGHT.get();
+    int pixels = image.getWidth() * image.getHeight();
+    Random rand = new Random(343);
+    assertSameSlots(Driver.vectorize(image, 5), 
+        Driver.vectorizeSampled(image, Driver.newTable(5), 1.0, Constants.RANDOM, rand));
+    assertSameSlots(Driver.vectorize(image, 5), 
+        Driver.vectorizeSampled(image, Driver.newTable(5), 1.0, Constants.STRATIFIED, rand));
+    assertEquals((pixels + 3) / 4, total(Driver.vectorizeSampled(image, Driver.newTable(5), 0.25, Constants.STRIDE, rand)));
+    assertEquals((pixels + 3) / 4, total(Driver.vectorizeSampled(image, Driver.newTable(5), 0.25, Constants.STRATIFIED, rand)));
+    assertEquals(pixels / 4, total(Driver.vectorizeSampled(image, Driver.newTable(5), 0.25, Constants.RANDOM, rand)), 
+        pixels / 100);
+    // Taking one pixel in k cannot take 0.6 of them.
+    for (int sampling : new int[] { Constants.STRIDE, Constants.STRATIFIED }) {
+      try {
+        Driver.vectorizeSampled(image, Driver.newTable(5), 0.6, sampling, rand);
+        assertEquals("a fraction that is not 1 / k", "no exception");
+      }
+      catch (RuntimeException e) {
+      }
+    }
+
+    // The interval around a sampled similarity covers the exact one, and narrows as the
+    // sample grows.
+    ColorTable other = Driver.vectorize(Painting.MONA_LISA.get(), 3);
+    double exact = Util.cosineSimilarity(Driver.vectorize(image, 3), other);
+    assertEquals(exact, Util.cosineSimilarity(Driver.vectorize(image, 3), 1.0, other, 1.0, 0.99).getHigh(), 1e-12);
+    double width = 1;
+    for (double fraction : new double[] { 0.01, 0.05, 0.25 }) {
+      ColorTable sampled = Driver.vectorizeSampled(image, Driver.newTable(3), fraction, Constants.STRATIFIED, rand);
+      Util.Interval interval = Util.cosineSimilarity(sampled, fraction, other, 1.0, 0.99);
+      assertEquals(true, interval.contains(exact));
+      assertEquals(true, interval.getHigh() - interval.getLow() < width);
+      width = interval.getHigh() - interval.getLow();
+    }
+  }
+
+  @Test
+  public void testPalettePyramid() {
+    Image image = Painting.STARRY_NIGHT.get();
+    PalettePyramid pyramid = new PalettePyramid(image);
+    assertEquals(8, pyramid.getBitsPerChannel());
+    for (int bitsPerChannel = 1; bitsPerChannel <= 8; bitsPerChannel++) {
+      ColorTable expected = Driver.vectorize(image, bitsPerChannel);
+      ColorTable folded = pyramid.get(bitsPerChannel);
+      assertEquals(expected.getSize(), folded.getSize());
+      EntryIterator it = expected.entries();
+      while (it.hasNext())
+        assertEquals(it.next(), folded.getPacked(it.key()));
+    }
+    // Folding straight from 8 bpc agrees with folding a level at a time.
+    assertSameSlots(pyramid.get(3), pyramid.get(8).fold(3));
+    try {
+      pyramid.get(3).fold(4);
+      assertEquals("fold to a finer level", "no exception");
+    }
+    catch (RuntimeException e) {
+    }
+
+    // With every painting a candidate, nearest() matches comparing everything at 8 bpc.
+    List<PalettePyramid> corpus = new ArrayList<>();
+    for (Painting painting : Painting.values())
+      corpus.add(new PalettePyramid(painting.get()));
+    for (PalettePyramid query : corpus) {
+      List<Integer> nearest = PalettePyramid.nearest(query, corpus, 3, corpus.size());
+      assertEquals(3, nearest.size());
+      assertEquals(corpus.indexOf(query), (int) nearest.get(0));
+      double last = 1.0 + 1e-12;
+      for (int i = 0; i < corpus.size(); i++) {
+        double sim = Util.cosineSimilarity(query.get(8), corpus.get(i).get(8));
+        if (!nearest.contains(i))
+          assertEquals(true, sim <= query.similarity(corpus.get(nearest.get(2)), 8));
+      }
+      for (int i : nearest) {
+        double sim = query.similarity(corpus.get(i), 8);
+        assertEquals(true, sim <= last);
+        last = sim;
+      }
+      assertEquals(2, PalettePyramid.nearest(query, corpus, 2, 1).size());
+    }
+  }
+
+  /**
+   * Returns the sum of the counts in the table.
+   */
+  private static long total(ColorTable table) {
+    long sum = 0;
+    EntryIterator it = table.entries();
+    while (it.hasNext())
+      sum += it.next();
+    return sum;
+  }
+
   @Test
   public void testCosineSimilarity() {
     ColorTable ct1 = Driver.vectorize(Painting.BLUE_DANCERS.get(), 1);
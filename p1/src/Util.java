@@ -1,29 +1,186 @@
 import java.awt.Color;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Util {
+  // Lookup table for previously computed table capacities.
+  private static Map<Integer, Integer> capacityCache = new ConcurrentHashMap<>();
   
   /**
    * Computes the cosine similarity using the formula given here: 
    * 
    *    https://en.wikipedia.org/wiki/Cosine_similarity
+   *    
+   * Only the occupied entries of each table are visited, so the cost depends on the 
+   * number of distinct colors and not on the capacities of the tables.
+   * 
+   * @throws RuntimeException if the tables use different numbers of bits per channel
    */
   public static double cosineSimilarity(ColorTable A, ColorTable B) {
+    if (A.getBitsPerChannel() != B.getBitsPerChannel())
+      throw new RuntimeException("Cannot compare tables with different bits per channel");
     return (dotProduct(A, B))/((magnitude(A)) * magnitude(B));
   }
  
   /**
-   * Calculates dot product of two color tables.
+   * An estimate along with the bounds of a confidence interval around it.
+   */
+  public static class Interval {
+    private double estimate, low, high;
+
+    public Interval(double estimate, double low, double high) {
+      this.estimate = estimate;
+      this.low = low;
+      this.high = high;
+    }
+
+    public double getEstimate() {
+      return estimate;
+    }
+
+    public double getLow() {
+      return low;
+    }
+
+    public double getHigh() {
+      return high;
+    }
+
+    /**
+     * Returns true iff x lies in the interval.
+     */
+    public boolean contains(double x) {
+      return low <= x && x <= high;
+    }
+
+    public String toString() {
+      return String.format("%.4f [%.4f, %.4f]", estimate, low, high);
+    }
+  }
+
+  /**
+   * Estimates the cosine similarity of the full histograms of two images from histograms
+   * of samples of their pixels, such as those from Driver.vectorizeSampled(), where each
+   * sample took the given fraction of its image's pixels (1.0 for a full histogram). 
+   * Returns the estimate along with an interval that covers the full similarity with
+   * the given confidence (0.95, say).
+   * 
+   * Each pixel is treated as taken independently with probability f, so a color with c
+   * pixels is counted a ~ Binomial(c, f) times. The dot product of two samples is then
+   * an unbiased estimate of f_A f_B times the full one, but the squared count of a color
+   * overestimates f^2 c^2 by f (1 - f) c on average, which biases the similarity low when
+   * most colors are seen only once or twice. So the magnitude of a sample is taken from
+   * the sum of a^2 - (1 - f) a instead of a^2. The variance of the estimate follows from
+   * the delta method: the gradient g of the similarity with respect to the counts of A
+   * is orthogonal to A, and each count has variance (1 - f) a, so A contributes 
+   * (1 - f) times the sum of a g^2 over its colors, and likewise for B.
+   * 
+   * This model of independent pixels only fits Constants.RANDOM sampling. Stratified
+   * samples usually vary less than it allows for, so their intervals tend to be wider 
+   * than they need be, and stride samples can be biased by patterns in the image that 
+   * repeat with the stride, which no interval accounts for.
+   * 
+   * @throws RuntimeException if the tables use different numbers of bits per channel
+   * @throws RuntimeException if a fraction is not in the range (0.0..1.0]
+   * @throws RuntimeException if confidence is not in the range (0.0..1.0)
+   */
+  public static Interval cosineSimilarity(ColorTable A, double fractionA, ColorTable B, double fractionB, 
+      double confidence) {
+    if (A.getBitsPerChannel() != B.getBitsPerChannel())
+      throw new RuntimeException("Cannot compare tables with different bits per channel");
+    if (fractionA <= 0 || fractionA > 1 || fractionB <= 0 || fractionB > 1)
+      throw new RuntimeException("Sampling fraction not in range 0.0...1.0");
+    if (confidence <= 0 || confidence >= 1)
+      throw new RuntimeException("Confidence not in range 0.0...1.0");
+    double a = sampledMagnitude(A, fractionA), b = sampledMagnitude(B, fractionB);
+    double cos = Math.min(1, dotProduct(A, B) / (a * b));
+    double variance = (1 - fractionA) * deltaVariance(A, B, a, b, cos) 
+        + (1 - fractionB) * deltaVariance(B, A, b, a, cos);
+    double halfWidth = normalQuantile(1 - (1 - confidence) / 2) * Math.sqrt(variance);
+    return new Interval(cos, Math.max(0, cos - halfWidth), Math.min(1, cos + halfWidth));
+  }
+
+  /**
+   * Returns the square root of the sum of a^2 - (1 - f) a over the counts a of a sample
+   * that took the fraction f of the pixels, which is f times an unbiased estimate of 
+   * the magnitude of the full histogram. Never less than the square root of the sum of
+   * the counts themselves.
+   */
+  private static double sampledMagnitude(ColorTable table, double fraction) {
+    EntryIterator it = table.entries();
+    double sum = 0, total = 0;
+    while (it.hasNext()) {
+      long count = it.next();
+      sum += (double) count * count - (1 - fraction) * count;
+      total += count;
+    }
+    return Math.sqrt(Math.max(sum, fraction * total));
+  }
+
+  /**
+   * Returns the sum over the colors of A of a g^2, where g is the gradient of the cosine
+   * similarity of A and B with respect to the counts of A, and a and b are the
+   * magnitudes of the tables.
+   */
+  private static double deltaVariance(ColorTable A, ColorTable B, double a, double b, double cos) {
+    double sum = 0;
+    EntryIterator it = A.entries();
+    while (it.hasNext()) {
+      long count = it.next();
+      double g = B.getPacked(it.key()) / (a * b) - cos * count / (a * a);
+      sum += count * g * g;
+    }
+    return sum;
+  }
+
+  /**
+   * Returns the x for which the standard normal distribution puts probability p below x,
+   * by bisection.
+   */
+  private static double normalQuantile(double p) {
+    double low = -10, high = 10;
+    for (int i = 0; i < 64; i++) {
+      double mid = (low + high) / 2;
+      if (normalCdf(mid) < p)
+        low = mid;
+      else
+        high = mid;
+    }
+    return (low + high) / 2;
+  }
+
+  /**
+   * Returns the probability that a standard normal variable is below x, using the 
+   * approximation of erf in Abramowitz and Stegun 7.1.26 (good to about 1e-7).
+   */
+  private static double normalCdf(double x) {
+    double z = Math.abs(x) / Math.sqrt(2);
+    double t = 1 / (1 + 0.3275911 * z);
+    double erf = 1 - t * (0.254829592 + t * (-0.284496736 + t * (1.421413741 + t * (-1.453152027 
+        + t * 1.061405429)))) * Math.exp(-z * z);
+    return (x >= 0) ? (1 + erf) / 2 : (1 - erf) / 2;
+  }
+ 
+  /**
+   * Calculates dot product of two color tables by looking up each key of the smaller
+   * table in the larger one. Keys missing from either table contribute nothing.
+   * The sum is kept in a double, so counts past 2^31 cannot overflow it. While every
+   * product and partial sum stays below 2^53 each addition is exact, so the result does 
+   * not depend on the order of the entries, and tables holding the same counts in 
+   * different slots (such as those of Driver.vectorizeParallel()) compare identically.
+   * Past that, the result is rounded and may differ in its last bits from one order to
+   * another.
    */
   private static double dotProduct(ColorTable A, ColorTable B) {
-	  double product = 0.0;
-	  Iterator ita = A.iterator();
-	  Iterator itb = B.iterator();
+	  if(A.getSize() > B.getSize())
+		  return dotProduct(B, A);
+	  // Sum in floating point: products of counts past 2^31 overflow a long.
+	  double product = 0;
+	  EntryIterator it = A.entries();
 	  
-	  while(ita.hasNext() && itb.hasNext()) {
-		  double a = (double)ita.next();
-		  double b = (double)itb.next();
-		  
-		  product += a*b;
+	  while(it.hasNext()) {
+		  long a = it.next();
+		  product += (double)a * B.getPacked(it.key());
 	  }
 	  
 	  return product;
@@ -33,15 +190,15 @@ public class Util {
    * Calculates magnitude of a color table.
    */
   private static double magnitude(ColorTable ct) {
-	  Iterator it = ct.iterator();
-	  long sum = 0;
+	  EntryIterator it = ct.entries();
+	  double sum = 0;
 	  
 	  while(it.hasNext()) {
-		  long freq = it.next();
+		  double freq = it.next();
 		  sum += (freq*freq);
 	  }
 	  
-	  return Math.sqrt((double)sum);
+	  return Math.sqrt(sum);
   }
 
   /**
@@ -63,6 +220,61 @@ public class Util {
     return true;
   }
     
+  /**
+   * Returns the smallest prime of the form 4j + 3 that is at least n, or n itself if n is
+   * 1 or less, since a table of one slot reaches every slot anyway. Returns 
+   * Constants.MAX_CAPACITY, itself such a prime, if n is larger.
+   */
+  public static int primeCapacity(int n) {
+    if (n <= 1)
+      return n;
+    if (n >= Constants.MAX_CAPACITY)
+      return Constants.MAX_CAPACITY;
+    // Only numbers of the form 4j + 3 are candidates, so step by 4. This stops at 
+    // MAX_CAPACITY at the latest.
+    int next = n + (3 - n % 4 + 4) % 4;
+    while (!isPrime(next))
+      next += 4;
+    return next;
+  }
+
+  /**
+   * Returns the capacity that a ColorTable of the given capacity grows to: the smallest 
+   * prime of the form 4j + 3 that is at least double the given capacity, or 
+   * Constants.MAX_CAPACITY if doubling would go past it. Tables grow through the same
+   * few capacities over and over, so results are memoized.
+   */
+  public static int nextCapacity(int capacity) {
+    Integer cached = capacityCache.get(capacity);
+    if (cached != null)
+      return cached;
+    int n = capacity * 2;
+    int next = (n > 0) ? primeCapacity(n) : Constants.MAX_CAPACITY;
+    capacityCache.put(capacity, next);
+    return next;
+  }
+
+  /**
+   * Returns the murmur3 finalizer of h, which spreads every bit of h over every bit of
+   * the result, so that keys differing only in their low bits end up far apart.
+   */
+  public static int fmix32(int h) {
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return h;
+  }
+
+  /**
+   * Returns h times 2^32 divided by the golden ratio. The high bits of the product
+   * depend on all the bits of h and are evenly spread over consecutive keys.
+   */
+  public static int fibonacci(int h) {
+    return h * 0x9E3779B9;
+  }
+
   /**
    * The 3 components of a Color are packed into one 32-bit int. The result
    * is used as a hash code for Colors in the ColorTable.
@@ -96,6 +308,25 @@ public class Util {
     }
   }
   
+  /**
+   * Packs a color given as a 32-bit (A)RGB int, as returned by BufferedImage.getRGB(),
+   * in the same way as pack(Color, int). The alpha channel is ignored.
+   */
+  public static int pack(int rgb, int bitsPerChannel) {
+    if (bitsPerChannel >= 1 && bitsPerChannel <= 8) {
+      int leftovers = 8 - bitsPerChannel;
+      int mask = (1 << bitsPerChannel) - 1;
+      int r = (rgb >> (16 + leftovers)) & mask;
+      int g = (rgb >> (8 + leftovers)) & mask;
+      int b = (rgb >> leftovers) & mask;
+      return (((r << bitsPerChannel) ^ g) << bitsPerChannel) ^ b;
+    }
+    else {
+      throw new RuntimeException(String.format("Unsupported number of bits per channel: %d",
+          bitsPerChannel));
+    }
+  }
+
   /**
    * Undoes the last step in the pack operation to reconstitute the code into a Color object.
    */
@@ -1,3 +1,6 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -14,6 +17,7 @@ import java.util.List;
 
 public class Board {
   private Map<Coord, Tile> inside, outside, dormant;
+  private WaterColor regionColor; // color of every inside and dormant tile
   private int size;
   private boolean first = true;
   
@@ -38,6 +42,7 @@ public class Board {
     // Move the corner tile into the flooded region and run flood on its color.
     Tile corner = outside.remove(Coord.ORIGIN);
     inside.put(Coord.ORIGIN, corner);
+    regionColor = corner.getColor();
     flood(corner.getColor());
   }
   
@@ -59,26 +64,54 @@ public class Board {
 	      for (int x = 0; x < size; x++) {
 	        Coord coord = new Coord(x, y);
 	        outside.put(coord, new Tile(coord));
-	        get(coord).setColor(color);
+	        tile(coord).setColor(color);
 	      }
 	    // Move the corner tile into the flooded region and run flood on its color.
 	    Tile corner = outside.remove(Coord.ORIGIN);
 	    inside.put(Coord.ORIGIN, corner);
+	    regionColor = corner.getColor();
 	    flood(corner.getColor());
   }
   
   /**
-   * Returns the tile at the specified coordinate.
+   * Returns the tile at the specified coordinate. The flooded region's color is kept in
+   * one field rather than in each of its tiles, so a flooded tile is returned as a new
+   * tile in that color, which does not change with later moves.
    * 
    * @param coord The coordinate where the tile is located.
    * @return The tile at the specified coordinate.
    */ 
   public Tile get(Coord coord) {
-    if (outside.containsKey(coord))
-      return outside.get(coord);
-    else if(dormant.containsKey(coord))
-    	return dormant.get(coord);
-    return inside.get(coord);
+    Tile tile = outside.get(coord);
+    if (tile != null)
+      return tile;
+    if (dormant.containsKey(coord) || inside.containsKey(coord))
+      return new Tile(coord, regionColor);
+    return null;
+  }
+  
+  /**
+   * Returns the tile stored at the specified coordinate, in whichever map holds it. A
+   * flooded tile keeps the color it was dealt.
+   */
+  private Tile tile(Coord coord) {
+    Tile tile = outside.get(coord);
+    if (tile != null)
+      return tile;
+    tile = dormant.get(coord);
+    return (tile != null) ? tile : inside.get(coord);
+  }
+  
+  /**
+   * Returns the current color of the tile at the specified coordinate: its own color if
+   * it is outside, and the flooded region's color otherwise.
+   * 
+   * @param coord The coordinate where the tile is located.
+   * @return The color of the tile at the specified coordinate.
+   */
+  public WaterColor colorAt(Coord coord) {
+    Tile tile = outside.get(coord);
+    return (tile != null) ? tile.getColor() : regionColor;
   }
   
   /**
@@ -118,7 +151,7 @@ public class Board {
 		  inside.forEach((k, v)-> {
 			  List<Coord> neighbors = k.neighbors(getSize());
 			  neighbors.forEach((c)-> {
-				  if(get(c).getColor() == color && outside.containsKey(c)) {
+				  if(tile(c).getColor() == color && outside.containsKey(c)) {
 					  candidates.add(c);
 				  }
 			  });
@@ -129,7 +162,7 @@ public class Board {
 		  else {
 			  // add the candidates to inside and remove from outside
 			  candidates.forEach((k)-> {  
-				  inside.put(k, get(k));
+				  inside.put(k, tile(k));
 				  outside.remove(k);
 			  }
 			  );
@@ -142,12 +175,11 @@ public class Board {
 			  );
 			  // move each surrounded tile to the dormant map, removing them from the "active" inside map
 			  surrounded.forEach((k)-> {
-				  dormant.put(k, get(k));
-				  inside.remove(k, get(k));
+				  dormant.put(k, tile(k));
+				  inside.remove(k, tile(k));
 			  }
 			  );
-			  inside.forEach((k,v)->v.setColor(color)); 
-			  dormant.forEach((k,v)->v.setColor(color));
+			  regionColor = color;
 			  surrounded.clear();
 			  candidates.clear();
 		  }
@@ -177,7 +209,7 @@ public class Board {
 	  inside.forEach((k, v)-> {
 		  List<Coord> neighbors = k.neighbors(getSize());
 		  neighbors.forEach((c)-> {
-			  if(get(c).getColor() == color && outside.containsKey(c)) {
+			  if(tile(c).getColor() == color && outside.containsKey(c)) {
 				  candidates.add(c);
 			  }
 		  });
@@ -185,7 +217,7 @@ public class Board {
 	  );
 	  // add the candidates to inside and remove from outside
 	  candidates.forEach((k)-> {  
-		  inside.put(k, get(k));
+		  inside.put(k, tile(k));
 		  outside.remove(k);
 	  }
 	  );
@@ -198,18 +230,71 @@ public class Board {
 	  );
 	  // move each surrounded tile to the dormant map, removing them from the "active" inside map
 	  surrounded.forEach((k)-> {
-		  dormant.put(k, get(k));
-		  inside.remove(k, get(k));
+		  dormant.put(k, tile(k));
+		  inside.remove(k, tile(k));
 	  }
 	  );
-	  inside.forEach((k,v)->v.setColor(color)); 
-	  dormant.forEach((k,v)->v.setColor(color));
+	  regionColor = color;
 	  // recursively flood unless no candidates were found
 	  if(!candidates.isEmpty()) {
 		  flood1(color);
 	  }
   }
  
+  /**
+   * Flood function that grows the region from its frontier with a worklist instead of
+   * rescanning the whole inside map on every pass. The inside map already holds the 
+   * frontier (flooded tiles that may still touch an outside tile), so the worklist starts
+   * with the matching outside neighbors of those, and each captured tile adds its own
+   * matching outside neighbors. A tile is captured at most once, and only the old frontier
+   * and the captured tiles are checked for becoming surrounded.
+   * 
+   * @param color The color to flood the inside region.
+   */
+  public void flood2(WaterColor color) {
+	  Deque<Coord> worklist = new ArrayDeque<>();
+	  List<Coord> captured = new ArrayList<>();
+	  
+	  if(first) {
+		  first = false;
+	      flood2(inside.get(Coord.ORIGIN).getColor());
+	  }
+	  // Capturing adds to the inside map, so go over a copy of the frontier.
+	  for(Coord k : new ArrayList<>(inside.keySet()))
+		  for(Coord c : k.neighbors(getSize()))
+			  capture(c, color, worklist);
+	  while(!worklist.isEmpty()) {
+		  Coord k = worklist.poll();
+		  captured.add(k);
+		  for(Coord c : k.neighbors(getSize()))
+			  capture(c, color, worklist);
+	  }
+	  if(captured.isEmpty())
+		  return;
+	  // Every captured tile is already in the inside map, so this checks the old frontier
+	  // and the captured tiles together.
+	  List<Coord> surrounded = new ArrayList<>();
+	  for(Coord k : inside.keySet())
+		  if(isSurrounded(k))
+			  surrounded.add(k);
+	  for(Coord k : surrounded)
+		  dormant.put(k, inside.remove(k));
+	  regionColor = color;
+  }
+  
+  /**
+   * Moves the tile at c into the inside map and onto the worklist if it is outside and
+   * of the given color.
+   */
+  private void capture(Coord c, WaterColor color, Deque<Coord> worklist) {
+	  Tile tile = outside.get(c);
+	  if(tile != null && tile.getColor() == color) {
+		  outside.remove(c);
+		  inside.put(c, tile);
+		  worklist.add(c);
+	  }
+  }
+ 
   /**
    * Checks if a tile is surrounded on all sides - by another inside tile, or by the board's boundary.
    * 
@@ -223,15 +308,64 @@ public class Board {
 			 (inside.containsKey(c.right()) || dormant.containsKey(c.right()) || !c.right().onBoard(getSize()));
   }
 
+  /**
+   * Returns the "best" GameColor for the next move: the one that would flood the most
+   * tiles, or the first such one in the case of a tie, as suggest1() finds by dry runs.
+   * 
+   * A move in some color captures exactly the outside areas of that color (tiles joined 
+   * through tiles of the same color) that touch the inside tiles. Each such area belongs
+   * to one color, so a single search outwards from the inside tiles, adding the size of
+   * every area it meets to the count for that area's color, looks ahead at all of the
+   * moves at once. Nothing is copied, and no tile is visited more than once.
+   * 
+   * @return the "best" GameColor for the next move.
+   */
+  public WaterColor suggest() {
+	  WaterColor[] colors = WaterColor.values();
+	  int[] gain = new int[colors.length];
+	  Set<Coord> seen = new HashSet<>();
+	  Deque<Coord> worklist = new ArrayDeque<>();
+	  
+	  for(Coord k : inside.keySet()) {
+		  for(Coord start : k.neighbors(getSize())) {
+			  Tile tile = outside.get(start);
+			  if(tile == null || !seen.add(start))
+				  continue;
+			  // A new area: count every tile of its color that can be reached from it.
+			  WaterColor color = tile.getColor();
+			  worklist.add(start);
+			  while(!worklist.isEmpty()) {
+				  Coord c = worklist.poll();
+				  gain[color.ordinal()]++;
+				  for(Coord n : c.neighbors(getSize())) {
+					  Tile next = outside.get(n);
+					  if(next != null && next.getColor() == color && seen.add(n))
+						  worklist.add(n);
+				  }
+			  }
+		  }
+	  }
+	  WaterColor bestColor = colors[0];
+	  int maxGain = 0;
+	  for(int i = 0; i < colors.length; i++) {
+		  if(gain[i] > maxGain) {
+			  maxGain = gain[i];
+			  bestColor = colors[i];
+		  }
+	  }
+	  return bestColor;
+  }
+
   /**
    * Returns the "best" GameColor for the next move with a modified "dry" vesion of the 
    * flood() method for each color, using temporary copies of the inside/outside maps.
    * The color with the maximum inside+dormant size (or the first such one in the case of a tie)
-   * will be returned.
+   * will be returned. This was replaced by suggest(), which gives the same answers without
+   * copying the board for every color, and is kept to check it against.
    * 
    * @return the "best" GameColor for the next move.
    */
-  public WaterColor suggest() {
+  public WaterColor suggest1() {
 	  WaterColor[] colors = WaterColor.values();
 	  int maxInside = inside.size() + dormant.size();
 	  WaterColor bestColor = colors[0];
@@ -252,7 +386,7 @@ public class Board {
 			  tempInside.forEach((k, v)-> {
 				  List<Coord> neighbors = k.neighbors(getSize());
 				  neighbors.forEach((c)-> {
-					  if(get(c).getColor() == color && tempOutside.containsKey(c)) {
+					  if(tile(c).getColor() == color && tempOutside.containsKey(c)) {
 						  tempCandidates.add(c);
 					  }
 				  });
@@ -263,7 +397,7 @@ public class Board {
 			  }
 			  else {
 				  tempCandidates.forEach((k)-> { 
-					  tempInside.put(k, get(k));
+					  tempInside.put(k, tile(k));
 					  tempOutside.remove(k);
 				  }
 				  );
@@ -274,8 +408,8 @@ public class Board {
 				  }
 				  );
 				  tempSurrounded.forEach((k)-> {
-					  tempDormant.put(k, get(k));
-					  tempInside.remove(k, get(k));
+					  tempDormant.put(k, tile(k));
+					  tempInside.remove(k, tile(k));
 				  }
 				  );
 				  tempCandidates.clear();
@@ -301,7 +435,7 @@ public class Board {
     for (int y = 0; y < size; y++) {
       for (int x = 0; x < size; x++) {
         Coord curr = new Coord(x, y);
-        WaterColor color = get(curr).getColor();
+        WaterColor color = colorAt(curr);
         ans.append((inside.containsKey(curr) || dormant.containsKey(curr)) ? color.toString().toUpperCase() : color);
         ans.append("\t");
       }
@@ -0,0 +1,306 @@
+/**
+ * A FlatBoard plays the same game as a Board, but keeps the whole board in two byte
+ * arrays indexed by y * size + x: the color of each tile and which of Board's three
+ * regions (outside, inside or dormant) it belongs to. No Coord or Tile objects are made
+ * while playing. Along with the two int arrays below, a board takes ten bytes per tile
+ * instead of a few map entries, and boards far larger than Constants.MAX_DIM can be
+ * played, up to MAX_SIZE on a side.
+ *
+ * The inside tiles, which are the flooded tiles that still touch an outside one, are
+ * also kept in a list. A move only looks at these and at the tiles it captures, and a
+ * captured tile is never looked at again once it stops touching the outside.
+ *
+ * Moves, suggestions and the colors seen by get() and toString() are exactly those of
+ * a Board in the same position. In particular the flooded region only takes on the
+ * color of a move that captures at least one tile.
+ *
+ * @author Reagan Roush
+ */
+
+public class FlatBoard {
+  private static final WaterColor[] COLORS = WaterColor.values();
+
+  // Regions a tile can be in, as in Board, plus a mark used while searching.
+  private static final byte OUTSIDE = 0, INSIDE = 1, DORMANT = 2, SEEN = 4;
+
+  /**
+   * The largest size whose size * size tiles can be indexed by an int.
+   */
+  public static final int MAX_SIZE = 46340;
+
+  private int size;
+  private byte[] colors;    // ordinal of the color of each tile, as dealt
+  private byte[] state;     // region of each tile
+  private byte regionColor; // ordinal of the color of every flooded tile
+  private int flooded;      // number of inside and dormant tiles
+  private int[] inside;     // the inside tiles, in inside[0..numInside)
+  private int numInside;
+  private int[] queue;      // work list for searches
+
+  /**
+   * Constructs a square game board of the given size, with each tile having a randomly
+   * selected color, and floods it from the tile in the upper left corner.
+   *
+   * @param size The size of the board to be constructed.
+   */
+  public FlatBoard(int size) {
+    this(size, null);
+  }
+
+  /**
+   * Constructs a square game board of the given size, with each tile having the same
+   * color, and floods it from the tile in the upper left corner.
+   *
+   * @param size The size of the board to be constructed.
+   * @param color The color of all the tiles in the board, or null for random colors.
+   */
+  public FlatBoard(int size, WaterColor color) {
+    init(size);
+    for (int i = 0; i < colors.length; i++)
+      colors[i] = (byte) (color == null ? WaterColor.pickOne() : color).ordinal();
+    start();
+  }
+
+  /**
+   * Constructs a board in the same position as the given one.
+   *
+   * @param board The Board to be copied.
+   */
+  public FlatBoard(Board board) {
+    init(board.getSize());
+    for (int y = 0; y < size; y++)
+      for (int x = 0; x < size; x++)
+        colors[y * size + x] = (byte) board.colorAt(new Coord(x, y)).ordinal();
+    // A Board's flooded region is exactly the tiles of the corner's color that can be
+    // reached from the corner, so flooding again from the corner finds it.
+    start();
+  }
+
+  private void init(int size) {
+    if (size < 1)
+      throw new RuntimeException("Board size must be at least 1");
+    if (size > MAX_SIZE)
+      throw new RuntimeException("Board size " + size + " is larger than " + MAX_SIZE + ": its tiles cannot be indexed by an int");
+    this.size = size;
+    colors = new byte[size * size];
+    state = new byte[size * size];
+    inside = new int[size * size];
+    queue = new int[size * size];
+  }
+
+  /**
+   * Moves the corner tile into the flooded region and runs flood on its color.
+   */
+  private void start() {
+    state[0] = INSIDE;
+    inside[numInside++] = 0;
+    flooded = 1;
+    regionColor = colors[0];
+    flood(COLORS[colors[0]]);
+  }
+
+  /**
+   * Returns the size of this board.
+   *
+   * @return The size of this board.
+   */
+  public int getSize() {
+    return size;
+  }
+
+  /**
+   * Returns the color of the tile at (x, y).
+   */
+  public WaterColor getColor(int x, int y) {
+    int i = y * size + x;
+    return COLORS[state[i] == OUTSIDE ? colors[i] : regionColor];
+  }
+
+  /**
+   * Returns true iff the tile at (x, y) is inside the flooded region.
+   */
+  public boolean isFlooded(int x, int y) {
+    return state[y * size + x] != OUTSIDE;
+  }
+
+  /**
+   * Returns a tile holding the coordinate and current color of the tile at the given
+   * coordinate. Unlike that of a Board, the tile does not change with later moves.
+   *
+   * @param coord The coordinate where the tile is located.
+   * @return The tile at the specified coordinate.
+   */
+  public Tile get(Coord coord) {
+    return new Tile(coord, getColor(coord.getX(), coord.getY()));
+  }
+
+  /**
+   * Returns true iff every tile is flooded.
+   *
+   * @return true iff every tile is flooded.
+   */
+  public boolean fullyFlooded() {
+    return flooded == colors.length;
+  }
+
+  /**
+   * Returns the tile next to tile i in direction d (up, down, left, right for d = 0, 1,
+   * 2, 3), or -1 if that is off the board.
+   */
+  private int neighbor(int i, int d) {
+    switch (d) {
+      case 0:
+        return (i >= size) ? i - size : -1;
+      case 1:
+        return (i + size < colors.length) ? i + size : -1;
+      case 2:
+        return (i % size > 0) ? i - 1 : -1;
+      default:
+        return (i % size < size - 1) ? i + 1 : -1;
+    }
+  }
+
+  /**
+   * Floods the region with the given color: every outside tile of that color that can
+   * be reached from the region through tiles of that color is captured. The search
+   * starts from the inside tiles only, and afterwards those of the old and the newly
+   * captured inside tiles that no longer touch an outside tile become dormant.
+   *
+   * @param color The color to flood the inside region.
+   */
+  public void flood(WaterColor color) {
+    byte c = (byte) color.ordinal();
+    int tail = 0;
+    for (int k = 0; k < numInside; k++)
+      tail = capture(inside[k], c, tail);
+    for (int head = 0; head < tail; head++)
+      tail = capture(queue[head], c, tail);
+    if (tail == 0)
+      return;
+    flooded += tail;
+    regionColor = c;
+    // Keep the inside tiles that still touch the outside, old ones first.
+    int kept = 0;
+    for (int k = 0; k < numInside; k++)
+      kept = keepIfInside(inside[k], kept);
+    for (int k = 0; k < tail; k++)
+      kept = keepIfInside(queue[k], kept);
+    numInside = kept;
+  }
+
+  /**
+   * Captures the outside neighbors of tile i that have color c, adding them to the work
+   * list at queue[tail], and returns the new end of the work list.
+   */
+  private int capture(int i, byte c, int tail) {
+    for (int d = 0; d < 4; d++) {
+      int j = neighbor(i, d);
+      if (j >= 0 && state[j] == OUTSIDE && colors[j] == c) {
+        state[j] = INSIDE;
+        queue[tail++] = j;
+      }
+    }
+    return tail;
+  }
+
+  /**
+   * Puts flooded tile i at inside[kept] if it touches an outside tile, and marks it
+   * dormant otherwise. Returns the new number of inside tiles kept.
+   */
+  private int keepIfInside(int i, int kept) {
+    for (int d = 0; d < 4; d++) {
+      int j = neighbor(i, d);
+      if (j >= 0 && state[j] == OUTSIDE) {
+        inside[kept] = i;
+        return kept + 1;
+      }
+    }
+    state[i] = DORMANT;
+    return kept;
+  }
+
+  /**
+   * Returns the color that would flood the most tiles on the next move, or the first
+   * such one in the case of a tie, as Board.suggest() does. The first color is returned
+   * if no move captures anything.
+   *
+   * Each outside area of one color that touches the region is captured whole by a move
+   * in its color, and by no other move. So one search from the inside tiles through
+   * these areas, adding the size of each to the total for its color, finds what every
+   * move would capture.
+   *
+   * @return the "best" WaterColor for the next move.
+   */
+  public WaterColor suggest() {
+    long[] gain = new long[COLORS.length];
+    int tail = 0;
+    for (int k = 0; k < numInside; k++)
+      for (int d = 0; d < 4; d++) {
+        int start = neighbor(inside[k], d);
+        if (start < 0 || state[start] != OUTSIDE)
+          continue;
+        // A new area: mark and count every tile of its color connected to it.
+        byte c = colors[start];
+        int head = tail, first = tail;
+        state[start] = SEEN;
+        queue[tail++] = start;
+        while (head < tail) {
+          int i = queue[head++];
+          for (int e = 0; e < 4; e++) {
+            int j = neighbor(i, e);
+            if (j >= 0 && state[j] == OUTSIDE && colors[j] == c) {
+              state[j] = SEEN;
+              queue[tail++] = j;
+            }
+          }
+        }
+        gain[c] += tail - first;
+      }
+    for (int k = 0; k < tail; k++)
+      state[queue[k]] = OUTSIDE;
+    WaterColor best = COLORS[0];
+    long bestGain = 0;
+    for (int c = 0; c < COLORS.length; c++)
+      if (gain[c] > bestGain) {
+        bestGain = gain[c];
+        best = COLORS[c];
+      }
+    return best;
+  }
+
+  /**
+   * Returns a string representation of this board, in the same form as that of a Board.
+   *
+   * @return A string representation of this board.
+   */
+  public String toString() {
+    StringBuilder ans = new StringBuilder();
+    for (int y = 0; y < size; y++) {
+      for (int x = 0; x < size; x++) {
+        WaterColor color = getColor(x, y);
+        ans.append(isFlooded(x, y) ? color.toString().toUpperCase() : color);
+        ans.append("\t");
+      }
+      ans.append("\n");
+    }
+    return ans.toString();
+  }
+
+  /**
+   * Simple testing.
+   */
+  public static void main(String... args) {
+    System.out.println(new FlatBoard(5));
+    // Autoplay boards well beyond Constants.MAX_DIM.
+    for (int size = 100; size <= 1600; size *= 2) {
+      long start = System.currentTimeMillis();
+      FlatBoard board = new FlatBoard(size);
+      int steps = 0;
+      while (!board.fullyFlooded()) {
+        board.flood(board.suggest());
+        steps++;
+      }
+      System.out.println("size " + size + ": " + steps + " steps in " + (System.currentTimeMillis() - start) + " ms");
+    }
+  }
+}
@@ -48,7 +48,7 @@ public class GUI extends JFrame {
     grid = new JPanel(new GridLayout(size, size));
     for (int y = 0; y < size; y++)
       for (int x = 0; x < size; x++) 
-        grid.add(new TileButton(board.get(new Coord(x, y))));
+        grid.add(new TileButton(new Coord(x, y)));
 
     setSteps();
     initMenu();
@@ -112,15 +112,17 @@ public class GUI extends JFrame {
    */
   
   class TileButton extends JButton {  
-    private Tile tile;
+    private Coord coord;
 
-    public TileButton(Tile tile) {
-      this.tile = tile;
+    public TileButton(Coord coord) {
+      // The board keeps the flooded region's color itself, so each look at the tile's
+      // color goes through the board.
+      this.coord = coord;
       // Add a listener to process player moves and deal with game win/lose conditions.
       addMouseListener(new MouseInputAdapter() {
         public void mousePressed(MouseEvent e) {
           // Update the model
-          game.select(tile.getColor());
+          game.select(board.colorAt(coord));
           // Update the view
           setSteps();
           GUI.this.repaint();
@@ -136,7 +138,7 @@ public class GUI extends JFrame {
      * Draws the tile on this button.
      */  
     public void paintComponent(Graphics gr) {
-      setBackground(tile.getColor().get());
+      setBackground(board.colorAt(coord).get());
       super.paintComponent(gr);
     }
     
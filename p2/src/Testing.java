@@ -92,4 +92,102 @@ public class Testing {
 
 	  System.out.println("Finished testRandomBoard2() on size 10 board in " + steps + " steps.");
   }
-}
\ No newline at end of file
+  
+  //Test flooding a board using flood2() and suggest(), checking each move against a FlatBoard
+  @Test
+  public void testRandomBoard3() {
+	  Board board = new Board(20);
+	  FlatBoard flat = new FlatBoard(board);
+	  int steps = 0;
+	  
+	  while(!board.fullyFlooded()) {
+		  WaterColor bestColor = board.suggest();
+		  board.flood2(bestColor);
+		  flat.flood(bestColor);
+		  assertEquals(flat.toString(), board.toString());
+		  steps++;
+	  }
+	  
+	  assertTrue(flat.fullyFlooded());
+
+	  System.out.println("Finished testRandomBoard3() on size 20 board in " + steps + " steps.");
+  }
+  
+  // Test that get() and colorAt() give flooded tiles the region's color, and that a tile
+  // once returned does not change with later moves.
+  @Test
+  public void testColorAt() {
+	  Board board = new Board(10);
+	  FlatBoard flat = new FlatBoard(board);
+	  
+	  while(!board.fullyFlooded()) {
+		  Tile corner = board.get(Coord.ORIGIN);
+		  WaterColor before = corner.getColor();
+		  WaterColor bestColor = board.suggest();
+		  board.flood2(bestColor);
+		  flat.flood(bestColor);
+		  assertEquals(before, corner.getColor());
+		  for(int y = 0; y < 10; y++)
+			  for(int x = 0; x < 10; x++) {
+				  Coord coord = new Coord(x, y);
+				  assertEquals(flat.getColor(x, y), board.colorAt(coord));
+				  assertEquals(flat.getColor(x, y), board.get(coord).getColor());
+			  }
+	  }
+  }
+  
+  // Test that suggest() agrees with the dry runs of suggest1() throughout random games.
+  @Test
+  public void testSuggest() {
+	  for(int size = 1; size <= 20; size++) {
+		  Board board = new Board(size);
+		  assertEquals(board.suggest1(), board.suggest());
+		  while(!board.fullyFlooded()) {
+			  // Mix in random moves so that ties and useless moves come up too.
+			  board.flood(WaterColor.pickOne());
+			  WaterColor bestColor = board.suggest1();
+			  assertEquals(bestColor, board.suggest());
+			  board.flood(bestColor);
+		  }
+		  assertEquals(board.suggest1(), board.suggest());
+	  }
+  }
+  
+  // Test that a FlatBoard plays exactly as a Board does.
+  @Test
+  public void testFlatBoard() {
+	  FlatBoard flat = new FlatBoard(10, WaterColor.BLUE);
+	  assertTrue(flat.fullyFlooded());
+	  assertEquals(WaterColor.BLUE, flat.suggest());
+	  flat.flood(WaterColor.CYAN);
+	  assertEquals(WaterColor.BLUE, flat.get(new Coord(9, 9)).getColor());
+	  
+	  for(int size = 1; size <= 20; size++) {
+		  Board board = new Board(size);
+		  flat = new FlatBoard(board);
+		  assertEquals(board.toString(), flat.toString());
+		  while(!board.fullyFlooded()) {
+			  assertFalse(flat.fullyFlooded());
+			  WaterColor bestColor = board.suggest();
+			  assertEquals(bestColor, flat.suggest());
+			  // Moves that capture nothing must leave both boards alone.
+			  WaterColor other = WaterColor.pickOne();
+			  board.flood(other);
+			  flat.flood(other);
+			  assertEquals(board.toString(), flat.toString());
+			  board.flood(bestColor);
+			  flat.flood(bestColor);
+			  assertEquals(board.toString(), flat.toString());
+		  }
+		  assertTrue(flat.fullyFlooded());
+	  }
+	  
+	  // Sizes whose tiles cannot be indexed by an int are refused before allocating.
+	  try {
+		  new FlatBoard(FlatBoard.MAX_SIZE + 1);
+		  fail("Expected an oversized board to be refused");
+	  } catch(RuntimeException e) {
+		  assertTrue(e.getMessage().contains(String.valueOf(FlatBoard.MAX_SIZE)));
+	  }
+  }
+}